@@ -0,0 +1,44 @@
+package com.ernestas.auth.graphql;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpCookie;
+import org.springframework.util.MultiValueMap;
+
+/**
+ * Benchmarks parsing of the cookie header that carries both tokens on every
+ * GraphQL request.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Threads(4)
+@State(Scope.Benchmark)
+public class CookieHeaderBenchmark {
+
+    private static final String COOKIE_HEADER = "theme=dark; "
+            + "accessToken=eyJhbGciOiJIUzI1NiJ9.eyJzdWIiOiJ1c2VyQGV4YW1wbGUuY29tIiwidHlwZSI6ImFjY2VzcyIsIm5hbWUi"
+            + "OiJKb2huIERvZSIsImlhdCI6MTcwMDAwMDAwMCwiZXhwIjoxNzAwMDAwOTAwfQ.c2lnbmF0dXJlLXNpZ25hdHVyZS1zaWduYXR1cmU; "
+            + "refreshToken=eyJhbGciOiJIUzI1NiJ9.eyJzdWIiOiJ1c2VyQGV4YW1wbGUuY29tIiwidHlwZSI6InJlZnJlc2giLCJ0b2tlbklk"
+            + "IjoiV3E3NVk1S2p0R2Y0T0p4ZzNQX2h6ZyIsImlhdCI6MTcwMDAwMDAwMCwiZXhwIjoxNzAwNjA0ODAwfQ.c2lnbmF0dXJlLXNpZ24; "
+            + "_ga=GA1.1.123456789.1700000000";
+
+    private final RequestContextInterceptor interceptor = new RequestContextInterceptor();
+
+    @Benchmark
+    public MultiValueMap<String, HttpCookie> parseCookieHeader() {
+        return interceptor.parseCookieHeader(COOKIE_HEADER);
+    }
+}
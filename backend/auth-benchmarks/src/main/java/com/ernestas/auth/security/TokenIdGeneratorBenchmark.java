@@ -0,0 +1,87 @@
+package com.ernestas.auth.security;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Contention benchmark for token ID generation at 1 to 64 threads, comparing
+ * {@link TokenIdGenerator} with the single shared {@link SecureRandom} that
+ * {@code RefreshTokenService} used before.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class TokenIdGeneratorBenchmark {
+    private static final SecureRandom SHARED_RANDOM = new SecureRandom();
+
+    private final TokenIdGenerator generator = new TokenIdGenerator(1024);
+
+    @Benchmark
+    @Threads(1)
+    public String sharedSecureRandom_01() {
+        return sharedSecureRandom();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String sharedSecureRandom_04() {
+        return sharedSecureRandom();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String sharedSecureRandom_16() {
+        return sharedSecureRandom();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public String sharedSecureRandom_64() {
+        return sharedSecureRandom();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String tokenIdGenerator_01() {
+        return generator.nextTokenId();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String tokenIdGenerator_04() {
+        return generator.nextTokenId();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String tokenIdGenerator_16() {
+        return generator.nextTokenId();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public String tokenIdGenerator_64() {
+        return generator.nextTokenId();
+    }
+
+    private static String sharedSecureRandom() {
+        byte[] bytes = new byte[32];
+        SHARED_RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,137 @@
+package com.ernestas.auth.service;
+
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.model.naming.CamelCaseToUnderscoresNamingStrategy;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ernestas.auth.model.RefreshToken;
+import com.ernestas.auth.model.User;
+
+/**
+ * Benchmarks the entity writes of an OAuth2 login against an in-memory H2
+ * database in PostgreSQL mode: the user is looked up by email and registered
+ * or updated, and a refresh token is stored for it. At the end of each trial
+ * the JDBC statements prepared per login are printed, which is what the ID
+ * generation strategy and JDBC batching change. The {@code IDENTITY} variant
+ * maps the IDs of the same entities to identity columns, as they were before
+ * pooled sequences, through {@code META-INF/identity-ids.orm.xml}. The native
+ * revocation of the user's surplus tokens is left out, it is one statement
+ * either way.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Threads(1)
+@State(Scope.Benchmark)
+public class LoginWritesBenchmark {
+
+    /** Whether every login registers a new user or updates an existing one. */
+    @Param({"true", "false"})
+    public boolean newUser;
+
+    /** How entity IDs are generated: the mapped pooled sequences, or identity columns. */
+    @Param({"SEQUENCE", "IDENTITY"})
+    public String idGeneration;
+
+    /** The JDBC batch size, 0 disables batching. */
+    @Param({"0", "50"})
+    public int batchSize;
+
+    private SessionFactory sessionFactory;
+    private long logins;
+
+    /**
+     * Creates the schema and the session factory with statistics enabled.
+     */
+    @Setup
+    public void setUp() {
+        Configuration configuration = new Configuration();
+        if ("IDENTITY".equals(idGeneration)) {
+            configuration.addResource("META-INF/identity-ids.orm.xml");
+        }
+        sessionFactory = configuration
+                .addAnnotatedClass(User.class)
+                .addAnnotatedClass(RefreshToken.class)
+                .setProperty(AvailableSettings.JAKARTA_JDBC_URL,
+                        "jdbc:h2:mem:login;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1")
+                .setPhysicalNamingStrategy(new CamelCaseToUnderscoresNamingStrategy())
+                .setProperty(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+                .setProperty(AvailableSettings.GENERATE_STATISTICS, true)
+                .setProperty(AvailableSettings.STATEMENT_BATCH_SIZE, batchSize)
+                .setProperty(AvailableSettings.ORDER_INSERTS, true)
+                .setProperty(AvailableSettings.ORDER_UPDATES, true)
+                .buildSessionFactory();
+        sessionFactory.inTransaction(session -> {
+            User user = new User();
+            user.setEmail("existing@example.com");
+            user.setName("Existing");
+            session.persist(user);
+        });
+        sessionFactory.getStatistics().clear();
+        logins = 0;
+    }
+
+    /**
+     * Prints the statements per login and closes the session factory.
+     */
+    @TearDown
+    public void tearDown() {
+        Statistics statistics = sessionFactory.getStatistics();
+        System.out.printf("%n%d logins, %.2f statements prepared per login%n",
+                logins, (double) statistics.getPrepareStatementCount() / logins);
+        sessionFactory.close();
+    }
+
+    @Benchmark
+    public RefreshToken login() {
+        logins++;
+        return sessionFactory.fromTransaction(session -> {
+            String email = newUser ? "user" + logins + "@example.com" : "existing@example.com";
+            User user = session.createSelectionQuery("from User where email = :email", User.class)
+                    .setParameter("email", email)
+                    .uniqueResultOptional()
+                    .orElseGet(User::new);
+            user.setEmail(email);
+            user.setName("User " + logins);
+            if (user.getId() == 0) {
+                session.persist(user);
+            }
+
+            RefreshToken token = new RefreshToken();
+            token.setTokenId(randomBytes());
+            token.setHashedToken(randomBytes());
+            token.setUser(user);
+            token.setCreatedAt(Instant.now());
+            token.setExpiresAt(token.getCreatedAt().plusSeconds(86_400));
+            session.persist(token);
+            return token;
+        });
+    }
+
+    private static byte[] randomBytes() {
+        byte[] bytes = new byte[32];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return bytes;
+    }
+}
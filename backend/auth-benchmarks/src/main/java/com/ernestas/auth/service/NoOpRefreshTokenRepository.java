@@ -0,0 +1,59 @@
+package com.ernestas.auth.service;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Optional;
+
+import com.ernestas.auth.repository.RefreshTokenRepository;
+
+/**
+ * Stand-in for the JPA repository so benchmarks measure the service code
+ * rather than the database.
+ *
+ * <p>
+ * {@code save} returns its argument, queries return empty results and
+ * bulk updates report zero rows.
+ * </p>
+ */
+public final class NoOpRefreshTokenRepository {
+
+    private NoOpRefreshTokenRepository() {
+    }
+
+    /**
+     * Creates a repository that never touches a database.
+     *
+     * @return the no-op repository
+     */
+    public static RefreshTokenRepository create() {
+        return (RefreshTokenRepository) Proxy.newProxyInstance(
+                RefreshTokenRepository.class.getClassLoader(),
+                new Class<?>[] { RefreshTokenRepository.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "save" -> args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "NoOpRefreshTokenRepository";
+                    default -> emptyResult(method.getReturnType());
+                });
+    }
+
+    private static Object emptyResult(Class<?> returnType) {
+        if (returnType == Optional.class) {
+            return Optional.empty();
+        }
+        if (returnType == List.class) {
+            return List.of();
+        }
+        if (returnType == int.class) {
+            return 0;
+        }
+        if (returnType == long.class) {
+            return 0L;
+        }
+        if (returnType == boolean.class) {
+            return false;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,71 @@
+package com.ernestas.auth.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ernestas.auth.security.RefreshTokenCache;
+import com.ernestas.auth.security.RefreshTokenDigester;
+import com.ernestas.auth.security.TokenIdGenerator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Benchmarks refresh token ID generation and the keyed digest stored for every
+ * refresh token, against the unkeyed SHA-256 of the whole token that was
+ * stored before.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Threads(4)
+@State(Scope.Benchmark)
+public class RefreshTokenServiceBenchmark {
+
+    private RefreshTokenService refreshTokenService;
+    private RefreshTokenDigester tokenDigester;
+    private String refreshToken;
+
+    /**
+     * Creates the service, the digester and a refresh-token-sized value to digest.
+     */
+    @Setup
+    public void setUp() {
+        tokenDigester = new RefreshTokenDigester("benchmark-pepper-".repeat(2), false);
+        refreshTokenService = new RefreshTokenService(NoOpRefreshTokenRepository.create(), new TokenIdGenerator(1024),
+                tokenDigester, new RefreshTokenCache(10_000, 30_000, new SimpleMeterRegistry()), 5);
+        refreshToken = "eyJhbGciOiJIUzI1NiJ9."
+                + refreshTokenService.generateTokenId().repeat(5)
+                + "." + refreshTokenService.generateTokenId();
+    }
+
+    @Benchmark
+    public String generateTokenId() {
+        return refreshTokenService.generateTokenId();
+    }
+
+    @Benchmark
+    public byte[] digest() {
+        return tokenDigester.digest(refreshToken);
+    }
+
+    @Benchmark
+    public byte[] sha256WholeToken() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256").digest(refreshToken.getBytes(StandardCharsets.UTF_8));
+    }
+}
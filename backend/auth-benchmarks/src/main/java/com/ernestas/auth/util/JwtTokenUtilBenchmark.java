@@ -0,0 +1,99 @@
+package com.ernestas.auth.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ernestas.auth.model.User;
+import com.ernestas.auth.security.AccessTokenCache;
+import com.ernestas.auth.security.AccessTokenDenylist;
+import com.ernestas.auth.security.JwtKeyProvider;
+import com.ernestas.auth.security.RefreshTokenCache;
+import com.ernestas.auth.security.RefreshTokenDigester;
+import com.ernestas.auth.security.TokenIdGenerator;
+import com.ernestas.auth.service.NoOpRefreshTokenRepository;
+import com.ernestas.auth.service.RefreshTokenService;
+
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Benchmarks minting and parsing of JWTs for every signing algorithm and claim
+ * profile. Refresh token minting includes hashing the token for storage, but
+ * not the database round trip.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Threads(4)
+@State(Scope.Benchmark)
+public class JwtTokenUtilBenchmark {
+    private static final String SECRET = "benchmark-secret-which-is-long-enough-for-hmac-sha";
+    private static final long ACCESS_TOKEN_EXPIRATION = 1000 * 60 * 15;
+    private static final long REFRESH_TOKEN_EXPIRATION = 1000 * 60 * 60 * 24 * 7;
+
+    @Param({ "HS256", "ES256", "EdDSA" })
+    private String algorithm;
+
+    @Param({ "STANDARD", "COMPACT" })
+    private TokenProfile profile;
+
+    private JwtTokenUtil jwtTokenUtil;
+    private User user;
+    private String accessToken;
+
+    /**
+     * Creates the token utility for the current parameters and mints the token
+     * that is parsed.
+     */
+    @Setup
+    public void setUp() {
+        JwtKeyProvider keyProvider = new JwtKeyProvider(SECRET, algorithm, "", "", "", "", "", "", "",
+                "", "", "", REFRESH_TOKEN_EXPIRATION, 300, "dev");
+        keyProvider.init();
+
+        jwtTokenUtil = new JwtTokenUtil(keyProvider, ACCESS_TOKEN_EXPIRATION, REFRESH_TOKEN_EXPIRATION, profile,
+                new RefreshTokenService(NoOpRefreshTokenRepository.create(), new TokenIdGenerator(1024),
+                        new RefreshTokenDigester(SECRET, false),
+                        new RefreshTokenCache(10_000, 30_000, new SimpleMeterRegistry()), 5),
+                new AccessTokenCache(10_000, new SimpleMeterRegistry()),
+                new AccessTokenDenylist(ACCESS_TOKEN_EXPIRATION, 10_000, new SimpleMeterRegistry()),
+                new SimpleMeterRegistry());
+        jwtTokenUtil.init();
+
+        user = new User();
+        user.setId(42);
+        user.setEmail("user@example.com");
+        user.setName("John Doe");
+
+        accessToken = jwtTokenUtil.generateAccessToken(user);
+    }
+
+    @Benchmark
+    public String generateAccessToken() {
+        return jwtTokenUtil.generateAccessToken(user);
+    }
+
+    @Benchmark
+    public String generateRefreshToken() {
+        return jwtTokenUtil.generateRefreshToken(user);
+    }
+
+    @Benchmark
+    public Claims parseClaims() {
+        return jwtTokenUtil.parseClaims(accessToken);
+    }
+}
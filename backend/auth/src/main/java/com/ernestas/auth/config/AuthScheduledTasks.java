@@ -5,7 +5,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import com.ernestas.auth.service.RefreshTokenService;
+import com.ernestas.auth.service.RefreshTokenPurgeService;
 
 /**
  * Scheduled tasks for authentication-related maintenance.
@@ -15,29 +15,27 @@ public class AuthScheduledTasks {
 
     private static final Logger logger = LoggerFactory.getLogger(AuthScheduledTasks.class);
 
-    private final RefreshTokenService refreshTokenService;
+    private final RefreshTokenPurgeService refreshTokenPurgeService;
 
     /**
      * Constructor for AuthScheduledTasks.
      *
-     * @param refreshTokenService the service for refresh token operations
+     * @param refreshTokenPurgeService the service that purges old refresh tokens
      */
-    public AuthScheduledTasks(RefreshTokenService refreshTokenService) {
-        this.refreshTokenService = refreshTokenService;
+    public AuthScheduledTasks(RefreshTokenPurgeService refreshTokenPurgeService) {
+        this.refreshTokenPurgeService = refreshTokenPurgeService;
     }
 
     /**
-     * Cleans up expired refresh tokens from the database.
-     * Runs every hour to keep the database clean.
+     * Purges expired refresh tokens, and revoked ones past their retention
+     * period, from the database. Runs an hour after the previous run finished
+     * by default, so runs never overlap.
      */
-    @Scheduled(fixedRate = 3600000) // 1 hour in milliseconds
+    @Scheduled(fixedDelayString = "${jwt.refresh.purge.interval:3600000}")
     public void cleanupExpiredTokens() {
-        logger.debug("Starting cleanup of expired refresh tokens");
+        logger.debug("Starting purge of expired and revoked refresh tokens");
         try {
-            int deletedCount = refreshTokenService.cleanupExpiredTokens();
-            if (deletedCount > 0) {
-                logger.info("Cleaned up {} expired refresh tokens", deletedCount);
-            }
+            refreshTokenPurgeService.purge();
         } catch (Exception e) {
             logger.error("Error during refresh token cleanup", e);
         }
@@ -0,0 +1,24 @@
+package com.ernestas.auth.config;
+
+import org.springframework.boot.autoconfigure.flyway.FlywayConfigurationCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration of the Flyway schema migrations in {@code db/migration}.
+ */
+@Configuration
+public class FlywayConfig {
+
+    /**
+     * Baselines databases whose schema was created by Hibernate before the
+     * migrations existed. Such a schema matches the {@code V1} baseline, so
+     * Flyway records it as applied and runs only the later migrations.
+     *
+     * @return the customizer enabling baseline on migrate
+     */
+    @Bean
+    public FlywayConfigurationCustomizer baselineOnMigrate() {
+        return configuration -> configuration.baselineOnMigrate(true);
+    }
+}
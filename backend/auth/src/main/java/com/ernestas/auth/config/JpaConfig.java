@@ -0,0 +1,39 @@
+package com.ernestas.auth.config;
+
+import java.util.Map;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration of the JPA provider.
+ */
+@Configuration
+public class JpaConfig {
+
+    /** Number of statements sent to the database in one JDBC batch. */
+    static final int JDBC_BATCH_SIZE = 50;
+
+    /**
+     * Enables JDBC batching of inserts and updates. Entity IDs come from pooled
+     * sequences, so inserts do not need to be flushed one by one to learn
+     * their keys, and ordering the statements by entity groups those of the
+     * same table into one batch. These are the only batching settings of the
+     * service; values set in {@code spring.jpa.properties} take precedence.
+     * No entity is versioned, so versioned batching is left alone.
+     *
+     * @return the customizer adding the batching settings
+     */
+    @Bean
+    public HibernatePropertiesCustomizer jdbcBatching() {
+        return properties -> {
+            Map<String, Object> defaults = Map.of(
+                    AvailableSettings.STATEMENT_BATCH_SIZE, JDBC_BATCH_SIZE,
+                    AvailableSettings.ORDER_INSERTS, true,
+                    AvailableSettings.ORDER_UPDATES, true);
+            defaults.forEach(properties::putIfAbsent);
+        };
+    }
+}
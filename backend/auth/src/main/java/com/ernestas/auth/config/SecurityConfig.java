@@ -121,7 +121,8 @@ public class SecurityConfig {
     /****
      * Returns a filter that enforces the presence of a valid gateway secret in the
      * `x-gateway-secret`
-     * request header for all endpoints except `/health`.
+     * request header for all endpoints except `/health` and the public
+     * `/.well-known/jwks.json` key set.
      *
      * <p>
      * Requests missing the correct secret receive a 403 Forbidden response and are
@@ -138,7 +139,7 @@ public class SecurityConfig {
              * Checks the `x-gateway-secret` header on incoming requests and blocks access
              * with HTTP 403
              * Forbidden if the secret is missing or incorrect, except for requests to the
-             * `/health` endpoint.
+             * `/health` and `/.well-known/jwks.json` endpoints.
              *
              * @param request     the HTTP request
              * @param response    the HTTP response
@@ -155,6 +156,7 @@ public class SecurityConfig {
                     throws ServletException, IOException {
                 String secret = request.getHeader("x-gateway-secret");
                 if (!"/health".equals(request.getRequestURI()) && !"/debug-sentry".equals(request.getRequestURI())
+                        && !"/.well-known/jwks.json".equals(request.getRequestURI())
                         && !gatewaySecret.equals(secret)) {
                     response.setStatus(HttpServletResponse.SC_FORBIDDEN);
                     return;
@@ -1,5 +1,8 @@
 package com.ernestas.auth.controller;
 
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -12,13 +15,14 @@ import com.ernestas.auth.graphql.dto.MessageResult;
 import com.ernestas.auth.graphql.exception.InvalidAccessTokenException;
 import com.ernestas.auth.graphql.exception.InvalidRefreshTokenException;
 import com.ernestas.auth.model.User;
+import com.ernestas.auth.security.RefreshSingleFlight;
 import com.ernestas.auth.service.RefreshTokenService;
 import com.ernestas.auth.service.UserService;
 import com.ernestas.auth.util.CookieGenerator;
 import com.ernestas.auth.util.JwtTokenUtil;
+import com.ernestas.auth.util.VerifiedToken;
 
 import graphql.GraphQLContext;
-import io.jsonwebtoken.Claims;
 import jakarta.servlet.http.Cookie;
 
 /**
@@ -30,6 +34,7 @@ public class AuthController {
     private final UserService userService;
     private final RefreshTokenService refreshTokenService;
     private final CookieGenerator cookieGenerator;
+    private final RefreshSingleFlight refreshSingleFlight;
     private static final Logger logger = LoggerFactory.getLogger(AuthController.class);
     private final int accessTokenExpiration;
     private final int refreshTokenExpiration;
@@ -42,6 +47,8 @@ public class AuthController {
      * @param userService            service for user operations
      * @param refreshTokenService    service for refresh token rotation management
      * @param cookieGenerator        utility for creating HTTP cookies
+     * @param refreshSingleFlight    coalescer for concurrent refreshes of the same
+     *                               token
      * @param accessTokenExpiration  expiration time for access tokens, in seconds
      * @param refreshTokenExpiration expiration time for refresh tokens, in seconds
      */
@@ -50,12 +57,14 @@ public class AuthController {
             UserService userService,
             RefreshTokenService refreshTokenService,
             CookieGenerator cookieGenerator,
+            RefreshSingleFlight refreshSingleFlight,
             @Value("${jwt.access.expiration}") int accessTokenExpiration,
             @Value("${jwt.refresh.expiration}") int refreshTokenExpiration) {
         this.jwtTokenUtil = jwtTokenUtil;
         this.userService = userService;
         this.refreshTokenService = refreshTokenService;
         this.cookieGenerator = cookieGenerator;
+        this.refreshSingleFlight = refreshSingleFlight;
         this.accessTokenExpiration = accessTokenExpiration;
         this.refreshTokenExpiration = refreshTokenExpiration;
     }
@@ -70,18 +79,18 @@ public class AuthController {
      */
     @QueryMapping
     public AuthPayload me(GraphQLContext context) {
-        Object tokenObj = context.get("accessToken");
+        VerifiedToken accessToken = verifyAccessToken(context, "Invalid or missing access token",
+                "Invalid access token");
 
-        if (!(tokenObj instanceof String accessToken) || !jwtTokenUtil.validateToken(accessToken, "access")) {
-            logger.error("Invalid or missing access token");
-            throw new InvalidAccessTokenException("Invalid access token");
+        if (accessToken.email() != null) {
+            logger.info("Authenticated user: {}", accessToken.email());
+            return new AuthPayload(accessToken.email(), accessToken.name());
         }
 
-        Claims claims = jwtTokenUtil.parseClaims(accessToken);
-
-        logger.info("Authenticated user: {}", claims.getSubject());
-
-        return new AuthPayload(claims.getSubject(), (String) claims.get("name"));
+        // Compact tokens carry only the user ID
+        User user = userService.findUserById(accessToken.userId());
+        logger.info("Authenticated user: {}", user.getEmail());
+        return new AuthPayload(user.getEmail(), user.getName());
     }
 
     /**
@@ -90,16 +99,27 @@ public class AuthController {
      *
      * <p>
      * This method implements refresh token rotation by:
-     * 1. Validating the current refresh token
-     * 2. Immediately revoking the used refresh token
-     * 3. Generating new access and refresh tokens
-     * 4. Storing the new refresh token securely
+     * 1. Checking the signature and expiry of the current refresh token, and
+     * that its family is neither revoked nor expired, which is usually
+     * answered from the refresh token cache
+     * 2. Revoking it and storing its successor in one compare-and-set
+     * transaction, so a token can be used at most once even under concurrent
+     * refreshes
+     * 3. Generating a new access token
+     * </p>
+     *
+     * <p>
+     * Concurrent refreshes with the same token, such as from several tabs,
+     * share a single rotation and receive the same successor tokens. So do
+     * retries with the same token within the short grace period after it was
+     * rotated.
      * </p>
      *
      * @param context the GraphQL context containing the refresh token
      * @return a RefreshResult indicating the outcome of the refresh operation
      * @throws InvalidRefreshTokenException if the refresh token is missing,
-     *                                      invalid, or already used
+     *                                      invalid, or already used, or too
+     *                                      many refreshes of it are waiting
      */
     @MutationMapping
     public MessageResult refresh(GraphQLContext context) {
@@ -110,27 +130,39 @@ public class AuthController {
             throw new InvalidRefreshTokenException("Refresh token is required");
         }
 
-        if (!jwtTokenUtil.validateToken(refreshToken, "refresh")) {
-            logger.warn("Invalid refresh token provided");
+        VerifiedToken verified = jwtTokenUtil.verifySignature(refreshToken)
+                .filter(v -> "refresh".equals(v.type()) && v.tokenId() != null)
+                .orElseThrow(() -> {
+                    logger.warn("Invalid refresh token provided");
+                    return new InvalidRefreshTokenException("Invalid or expired refresh token");
+                });
+
+        // Rejects dead families before the user lookup; the rotation checks the generation
+        if (!refreshTokenService.isActiveFamily(verified.tokenId())) {
             throw new InvalidRefreshTokenException("Invalid or expired refresh token");
         }
 
-        // Extract token ID and revoke the current token immediately (rotation)
-        String tokenId = jwtTokenUtil.getTokenId(refreshToken);
-        if (tokenId != null) {
-            refreshTokenService.revokeRefreshToken(tokenId);
-            logger.debug("Revoked refresh token: {}", tokenId);
+        User user = resolveUser(verified);
+        String email = user.getEmail();
+
+        Optional<TokenPair> rotated;
+        try {
+            rotated = refreshSingleFlight.rotate(verified.tokenId(), refreshToken,
+                    () -> jwtTokenUtil.rotateRefreshToken(verified, refreshToken, user)
+                            .map(next -> new TokenPair(jwtTokenUtil.generateAccessToken(user), next)));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Refresh rejected while coalescing: {}", e.getMessage());
+            throw new InvalidRefreshTokenException("Too many concurrent refreshes, retry shortly", e);
         }
+        TokenPair tokens = rotated
+                .orElseThrow(() -> {
+                    logger.warn("Refresh token already used or revoked: {}", verified.tokenId());
+                    return new InvalidRefreshTokenException("Invalid or expired refresh token");
+                });
 
-        String email = jwtTokenUtil.getUsernameFromToken(refreshToken);
-        User user = userService.findUserByEmail(email);
-
-        String newAccessToken = jwtTokenUtil.generateAccessToken(user);
-        String newRefreshToken = jwtTokenUtil.generateRefreshToken(user);
-
-        Cookie accessCookie = cookieGenerator.createCookie("accessToken", newAccessToken, "/",
+        Cookie accessCookie = cookieGenerator.createCookie("accessToken", tokens.accessToken(), "/",
                 accessTokenExpiration);
-        Cookie refreshCookie = cookieGenerator.createCookie("refreshToken", newRefreshToken, "/",
+        Cookie refreshCookie = cookieGenerator.createCookie("refreshToken", tokens.refreshToken(), "/",
                 refreshTokenExpiration);
 
         context.put("accessToken", accessCookie.getValue());
@@ -141,7 +173,9 @@ public class AuthController {
     }
 
     /**
-     * Revokes all refresh tokens for the authenticated user.
+     * Revokes all refresh tokens and outstanding access tokens for the
+     * authenticated user, by the user ID the access token carries, without
+     * loading the user.
      * This is useful for logout functionality or security incidents.
      *
      * @param context the GraphQL context containing the access token
@@ -150,20 +184,58 @@ public class AuthController {
      */
     @MutationMapping
     public MessageResult logout(GraphQLContext context) {
+        VerifiedToken accessToken = verifyAccessToken(context, "Invalid or missing access token for logout",
+                "Valid access token required for logout");
+
+        // Tokens issued before they carried the user ID identify the user by email only
+        int userId = accessToken.userId() != null ? accessToken.userId() : resolveUser(accessToken).getId();
+
+        userService.revokeAllUserTokens(userId, accessToken.email());
+
+        logger.info("Successfully logged out user ID: {}", userId);
+        return new MessageResult("Successfully logged out");
+    }
+
+    /**
+     * Verifies the access token from the GraphQL context with a single signature
+     * check.
+     *
+     * @param context      the GraphQL context containing the access token
+     * @param logMessage   the message to log if the token is missing or invalid
+     * @param errorMessage the message of the thrown exception
+     * @return the verified access token
+     * @throws InvalidAccessTokenException if the access token is missing or invalid
+     */
+    private VerifiedToken verifyAccessToken(GraphQLContext context, String logMessage, String errorMessage) {
         Object tokenObj = context.get("accessToken");
 
-        if (!(tokenObj instanceof String accessToken) || !jwtTokenUtil.validateToken(accessToken, "access")) {
-            logger.error("Invalid or missing access token for logout");
-            throw new InvalidAccessTokenException("Valid access token required for logout");
+        if (tokenObj instanceof String accessToken) {
+            Optional<VerifiedToken> verified = jwtTokenUtil.verifyAccessToken(accessToken);
+            if (verified.isPresent()) {
+                return verified.get();
+            }
         }
 
-        Claims claims = jwtTokenUtil.parseClaims(accessToken);
-        String email = claims.getSubject();
-        User user = userService.findUserByEmail(email);
+        logger.error(logMessage);
+        throw new InvalidAccessTokenException(errorMessage);
+    }
 
-        refreshTokenService.revokeAllTokensForUser(user);
+    /**
+     * Loads the user a verified token was issued to, by ID, or by email for
+     * standard tokens issued before they carried the user ID.
+     *
+     * @param token the verified token
+     * @return the user the token identifies
+     */
+    private User resolveUser(VerifiedToken token) {
+        return token.userId() != null
+                ? userService.findUserById(token.userId())
+                : userService.findUserByEmail(token.email());
+    }
 
-        logger.info("Successfully logged out user: {}", email);
-        return new MessageResult("Successfully logged out");
+    /**
+     * The access and refresh tokens issued by one rotation.
+     */
+    private record TokenPair(String accessToken, String refreshToken) {
     }
 }
@@ -0,0 +1,59 @@
+package com.ernestas.auth.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.ernestas.auth.controller.dto.IntrospectionRequest;
+import com.ernestas.auth.controller.dto.IntrospectionResponse;
+import com.ernestas.auth.service.TokenIntrospectionService;
+
+/**
+ * IntrospectionController lets other services confirm that tokens are still
+ * active, including refresh token revocation, in a single request per batch.
+ */
+@RestController
+public class IntrospectionController {
+    private final TokenIntrospectionService introspectionService;
+    private final int maxBatchSize;
+
+    /**
+     * Constructs an IntrospectionController.
+     *
+     * @param introspectionService the service that introspects the tokens
+     * @param maxBatchSize         the maximum number of tokens per request
+     */
+    public IntrospectionController(
+            TokenIntrospectionService introspectionService,
+            @Value("${jwt.introspection.max-batch-size:100}") int maxBatchSize) {
+        this.introspectionService = introspectionService;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Handles HTTP POST requests to the /introspect endpoint.
+     *
+     * <p>
+     * Like every endpoint except /health and the JWKS document, it requires the
+     * gateway secret header.
+     * </p>
+     *
+     * @param request the tokens to introspect
+     * @return one result per token, in request order
+     * @throws ResponseStatusException with 400 Bad Request if the token list is
+     *                                 missing or larger than the batch limit
+     */
+    @PostMapping(value = "/introspect", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public IntrospectionResponse introspect(@RequestBody IntrospectionRequest request) {
+        if (request.tokens() == null || request.tokens().size() > maxBatchSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Between 0 and " + maxBatchSize + " tokens are required");
+        }
+        return new IntrospectionResponse(introspectionService.introspect(request.tokens()));
+    }
+}
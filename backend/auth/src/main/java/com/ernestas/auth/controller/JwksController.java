@@ -0,0 +1,53 @@
+package com.ernestas.auth.controller;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.ernestas.auth.security.JwtKeyProvider;
+
+/**
+ * JwksController publishes the public keys that verify JWTs issued by this
+ * service, so other services can verify tokens locally.
+ */
+@RestController
+public class JwksController {
+    private final JwtKeyProvider keyProvider;
+    private final CacheControl cacheControl;
+
+    /**
+     * Constructs a JwksController.
+     *
+     * @param keyProvider the provider of the published verification keys
+     * @param maxAge      how long, in seconds, clients may cache the key set
+     */
+    public JwksController(JwtKeyProvider keyProvider, @Value("${jwt.jwks.max-age:300}") long maxAge) {
+        this.keyProvider = keyProvider;
+        this.cacheControl = CacheControl.maxAge(Duration.ofSeconds(maxAge)).cachePublic();
+    }
+
+    /**
+     * Handles HTTP GET requests to the /.well-known/jwks.json endpoint and
+     * returns the JWKS document.
+     *
+     * <p>
+     * The response carries an ETag and a public Cache-Control max-age.
+     * Conditional requests with a matching If-None-Match header receive a 304
+     * Not Modified response without a body.
+     * </p>
+     *
+     * @return the JWKS document with caching headers
+     */
+    @GetMapping(value = "/.well-known/jwks.json", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> jwks() {
+        return ResponseEntity.ok()
+                .cacheControl(cacheControl)
+                .eTag(keyProvider.getJwksEtag())
+                .body(keyProvider.getJwksJson());
+    }
+}
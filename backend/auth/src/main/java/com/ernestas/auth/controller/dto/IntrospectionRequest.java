@@ -0,0 +1,11 @@
+package com.ernestas.auth.controller.dto;
+
+import java.util.List;
+
+/**
+ * Request body of the token introspection endpoint.
+ *
+ * @param tokens the raw tokens to introspect, of any type
+ */
+public record IntrospectionRequest(List<String> tokens) {
+}
@@ -0,0 +1,13 @@
+package com.ernestas.auth.controller.dto;
+
+import java.util.List;
+
+import com.ernestas.auth.service.TokenIntrospection;
+
+/**
+ * Response body of the token introspection endpoint.
+ *
+ * @param results one result per requested token, in request order
+ */
+public record IntrospectionResponse(List<TokenIntrospection> results) {
+}
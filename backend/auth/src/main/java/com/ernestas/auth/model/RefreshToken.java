@@ -1,57 +1,92 @@
 package com.ernestas.auth.model;
 
-import java.time.LocalDateTime;
+import java.time.Instant;
+
+import org.hibernate.annotations.ColumnDefault;
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
-import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
 /**
- * Entity representing a refresh token stored in the database.
- * This enables refresh token rotation by tracking active tokens per user.
+ * Entity representing a refresh token family stored in the database: one row
+ * per login session. Rotation updates the row in place, advancing its
+ * generation and replacing the hash with that of the newest token, so a
+ * session keeps a single row however often it is refreshed.
+ *
+ * <p>
+ * The token ID and the SHA-256 hash are stored as raw 32-byte values and all
+ * times as {@code timestamptz}, which keeps the unique token ID index about
+ * half the size of a Base64 text index and makes comparisons byte-wise.
+ * IDs are drawn from {@code refresh_tokens_seq} in blocks of 50, so inserts
+ * can be batched.
+ * </p>
+ *
+ * <p>
+ * The user is loaded lazily, as token reads only need the token's own columns.
+ * Two instances are equal if they have the same ID, so equality, hash code and
+ * {@code toString} never touch the user.
+ * </p>
  */
 @Entity
-@Table(name = "refresh_tokens")
-@Data
+@Table(name = "refresh_tokens", indexes = {
+        @Index(name = "idx_refresh_tokens_user_active", columnList = "user_id, revoked, created_at"),
+        @Index(name = "idx_refresh_tokens_expires_at", columnList = "expires_at"),
+        @Index(name = "idx_refresh_tokens_revoked_at", columnList = "revoked_at")
+})
+@Getter
+@Setter
+@ToString
 public class RefreshToken {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "refresh_tokens_seq")
+    @SequenceGenerator(name = "refresh_tokens_seq", sequenceName = "refresh_tokens_seq", allocationSize = 50)
     private Long id;
 
-    @Column(nullable = false, unique = true)
-    private String tokenId;
+    @Column(nullable = false, unique = true, length = 32)
+    private byte[] tokenId;
+
+    @Column(nullable = false, length = 32)
+    private byte[] hashedToken;
 
     @Column(nullable = false)
-    private String hashedToken;
+    @ColumnDefault("0")
+    private int generation = 0;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", nullable = false)
+    @ToString.Exclude
     private User user;
 
     @Column(nullable = false)
-    private LocalDateTime expiresAt;
+    private Instant expiresAt;
 
     @Column(nullable = false)
-    private LocalDateTime createdAt;
+    private Instant createdAt;
 
     @Column(nullable = false)
     private boolean revoked = false;
 
     @Column
-    private LocalDateTime revokedAt;
+    private Instant revokedAt;
 
     /**
      * Marks this refresh token as revoked.
      */
     public void revoke() {
         this.revoked = true;
-        this.revokedAt = LocalDateTime.now();
+        this.revokedAt = Instant.now();
     }
 
     /**
@@ -60,6 +95,31 @@ public class RefreshToken {
      * @return true if the token is valid, false otherwise
      */
     public boolean isValid() {
-        return !revoked && LocalDateTime.now().isBefore(expiresAt);
+        return !revoked && Instant.now().isBefore(expiresAt);
+    }
+
+    /**
+     * Compares by database ID. An unsaved token is only equal to itself.
+     *
+     * @param o the object to compare with
+     * @return true if both are the same stored token
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof RefreshToken other && id != null && id.equals(other.getId());
+    }
+
+    /**
+     * Returns a hash code that does not change when the ID is assigned on
+     * persist.
+     *
+     * @return the same hash code for every token
+     */
+    @Override
+    public int hashCode() {
+        return RefreshToken.class.hashCode();
     }
 }
@@ -0,0 +1,29 @@
+package com.ernestas.auth.model;
+
+import java.time.Instant;
+
+/**
+ * The columns of a stored refresh token that validation needs, read without
+ * the entity and its user.
+ *
+ * <p>
+ * Being immutable, a state can be cached and shared between threads. The byte
+ * arrays are not copied and must not be modified.
+ * </p>
+ *
+ * @param tokenId     the raw 32-byte token ID
+ * @param hashedToken the 32-byte hash of the current token value
+ * @param expiresAt   when the token expires
+ * @param revoked     whether the token was revoked
+ */
+public record RefreshTokenState(byte[] tokenId, byte[] hashedToken, Instant expiresAt, boolean revoked) {
+
+    /**
+     * Checks if the token is still valid (not expired and not revoked).
+     *
+     * @return true if the token is valid, false otherwise
+     */
+    public boolean isValid() {
+        return !revoked && Instant.now().isBefore(expiresAt);
+    }
+}
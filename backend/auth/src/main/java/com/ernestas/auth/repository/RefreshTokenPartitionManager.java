@@ -0,0 +1,304 @@
+package com.ernestas.auth.repository;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Optional PostgreSQL storage mode in which {@code refresh_tokens} is range
+ * partitioned by {@code expires_at}, one partition per day.
+ *
+ * <p>
+ * Enabled with {@code jwt.refresh.storage.partitioned=true}. At startup, after
+ * the schema migrations have run, a plain {@code refresh_tokens} table is
+ * converted in one transaction: unexpired rows are copied into a partitioned
+ * table with the same columns and indexes. IDs keep coming from
+ * {@code refresh_tokens_seq}, which is independent of the table.
+ * Partitions are then kept created ahead for the whole refresh token lifetime,
+ * and a partition is dropped as soon as every token in it has expired, instead
+ * of deleting expired rows one by one. Days are UTC days, so partition bounds
+ * do not depend on the server's time zone.
+ * </p>
+ *
+ * <p>
+ * Expired partitions are first detached with
+ * {@code DETACH PARTITION ... CONCURRENTLY}, which needs PostgreSQL 14 or
+ * later, and only then dropped. The parent table is therefore never locked
+ * exclusively, and concurrent refreshes are not blocked. A detach that was
+ * interrupted is finalized, and a detached partition whose drop failed is
+ * dropped, on the next run.
+ * </p>
+ *
+ * <p>
+ * Several instances share the table, so the conversion and the partition
+ * maintenance are serialized with a PostgreSQL advisory lock. Startup waits
+ * for the lock within the conversion transaction, so a second instance sees
+ * the already converted table. Maintenance cannot run in one transaction,
+ * since {@code DETACH PARTITION ... CONCURRENTLY} must not, so it tries the
+ * same lock at session level and skips the run while another instance holds
+ * it. There is no default partition: a row stored in it would prevent
+ * creating the partition for its day later. Instead, startup fails if the
+ * partitions created ahead do not cover the refresh token lifetime plus the
+ * maintenance interval.
+ * </p>
+ *
+ * <p>
+ * The {@link com.ernestas.auth.model.RefreshToken} entity and the repository
+ * queries are unchanged. Two differences follow from PostgreSQL's partitioning
+ * rules: the primary key is {@code (id, expires_at)}, and {@code token_id} is
+ * indexed but not unique across partitions, which its 256 random bits make
+ * irrelevant. Rotation moves a family's row to the partition of its new
+ * expiration.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "jwt.refresh.storage.partitioned", havingValue = "true")
+@DependsOn("entityManagerFactory")
+public class RefreshTokenPartitionManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(RefreshTokenPartitionManager.class);
+    private static final String PARTITION_PREFIX = "refresh_tokens_p";
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final long DAY_MILLIS = 86_400_000L;
+    private static final String LOCK_KEY = "hashtext('refresh_tokens_partitions')";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int daysAhead;
+    private final long refreshTokenExpiration;
+    private final long maintenanceInterval;
+    private final Counter droppedPartitions;
+
+    /**
+     * Creates the partition manager.
+     *
+     * @param jdbcTemplate           the template for schema statements
+     * @param transactionManager     the transaction manager for the conversion
+     * @param refreshTokenExpiration the refresh token lifetime in milliseconds
+     * @param extraDaysAhead         the number of daily partitions created beyond
+     *                               the refresh token lifetime
+     * @param maintenanceInterval    the delay between maintenance runs in
+     *                               milliseconds
+     * @param meterRegistry          the registry to publish dropped partitions to
+     */
+    public RefreshTokenPartitionManager(
+            JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            @Value("${jwt.refresh.expiration}") long refreshTokenExpiration,
+            @Value("${jwt.refresh.storage.partitions-ahead:3}") int extraDaysAhead,
+            @Value("${jwt.refresh.storage.maintenance-interval:3600000}") long maintenanceInterval,
+            MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.daysAhead = (int) ((refreshTokenExpiration + DAY_MILLIS - 1) / DAY_MILLIS) + extraDaysAhead;
+        this.refreshTokenExpiration = refreshTokenExpiration;
+        this.maintenanceInterval = maintenanceInterval;
+        this.droppedPartitions = Counter.builder("auth.refresh.partitions.dropped")
+                .description("Expired refresh token partitions that were dropped")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Converts {@code refresh_tokens} to a partitioned table if it is not one
+     * yet, and creates the partitions for the coming days.
+     *
+     * @throws IllegalStateException if the table does not exist, or if a token
+     *                               issued just before a maintenance run could
+     *                               expire after the last created partition
+     */
+    @PostConstruct
+    public void init() {
+        // Created partitions end daysAhead + 1 days after the start of the day of a run, and the next
+        // run may be a whole interval later, so tokens issued until then must expire within daysAhead days
+        if (refreshTokenExpiration + maintenanceInterval > daysAhead * DAY_MILLIS) {
+            throw new IllegalStateException("Refresh token partitions created " + daysAhead
+                    + " days ahead do not cover the refresh token lifetime plus the maintenance interval, "
+                    + "raise jwt.refresh.storage.partitions-ahead");
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("SELECT pg_advisory_xact_lock(" + LOCK_KEY + ")");
+            String kind = jdbcTemplate.queryForObject(
+                    "SELECT relkind::text FROM pg_class WHERE oid = to_regclass('refresh_tokens')", String.class);
+            if (kind == null) {
+                throw new IllegalStateException("Table refresh_tokens does not exist");
+            }
+            if (!"p".equals(kind)) {
+                convert(LocalDate.now(ZoneOffset.UTC));
+            }
+            createPartitions(LocalDate.now(ZoneOffset.UTC));
+        });
+    }
+
+    /**
+     * Creates missing partitions ahead of time and drops fully expired ones.
+     * Runs every hour by default, so the next day's partitions exist long
+     * before they are needed.
+     */
+    @Scheduled(fixedDelayString = "${jwt.refresh.storage.maintenance-interval:3600000}",
+            initialDelayString = "${jwt.refresh.storage.maintenance-interval:3600000}")
+    public void maintain() {
+        try {
+            // The session-level lock must be released on the connection that took it
+            jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> maintain(
+                    new JdbcTemplate(new SingleConnectionDataSource(connection, true)),
+                    LocalDate.now(ZoneOffset.UTC)));
+        } catch (Exception e) {
+            logger.error("Error during refresh token partition maintenance", e);
+        }
+    }
+
+    /**
+     * Runs the maintenance on a single connection, unless another instance is
+     * maintaining the partitions.
+     *
+     * @param session the template bound to one connection
+     * @param today   the current UTC day
+     * @return whether the maintenance ran
+     */
+    boolean maintain(JdbcTemplate session, LocalDate today) {
+        Boolean locked = session.queryForObject("SELECT pg_try_advisory_lock(" + LOCK_KEY + ")", Boolean.class);
+        if (!Boolean.TRUE.equals(locked)) {
+            logger.debug("Refresh token partitions are being maintained by another instance");
+            return false;
+        }
+        try {
+            createPartitions(session, today);
+            dropExpiredPartitions(session, today);
+            return true;
+        } finally {
+            session.queryForObject("SELECT pg_advisory_unlock(" + LOCK_KEY + ")", Boolean.class);
+        }
+    }
+
+    /**
+     * Creates the daily partitions from {@code today} through the refresh
+     * token lifetime plus the extra days ahead.
+     */
+    void createPartitions(LocalDate today) {
+        createPartitions(jdbcTemplate, today);
+    }
+
+    private void createPartitions(JdbcTemplate template, LocalDate today) {
+        for (int i = 0; i <= daysAhead; i++) {
+            createPartition(template, today.plusDays(i));
+        }
+    }
+
+    /**
+     * Detaches and drops the partitions whose whole range lies before
+     * {@code today}. Runs outside a transaction, which
+     * {@code DETACH PARTITION ... CONCURRENTLY} requires.
+     *
+     * @return the number of dropped partitions
+     */
+    int dropExpiredPartitions(LocalDate today) {
+        return dropExpiredPartitions(jdbcTemplate, today);
+    }
+
+    private int dropExpiredPartitions(JdbcTemplate template, LocalDate today) {
+        // Detached partitions are included, so one whose drop failed is dropped on the next run
+        List<Map<String, Object>> partitions = template.queryForList("""
+                SELECT c.relname, i.inhdetachpending FROM pg_class c
+                LEFT JOIN pg_inherits i ON i.inhrelid = c.oid AND i.inhparent = 'refresh_tokens'::regclass
+                WHERE c.relkind = 'r' AND starts_with(c.relname, ?)
+                  AND c.relnamespace = (SELECT relnamespace FROM pg_class WHERE oid = 'refresh_tokens'::regclass)
+                """, PARTITION_PREFIX);
+
+        int dropped = 0;
+        for (Map<String, Object> partition : partitions) {
+            String name = (String) partition.get("relname");
+            LocalDate day = partitionDay(name);
+            if (day == null || !day.isBefore(today)) {
+                continue;
+            }
+            Object detachPending = partition.get("inhdetachpending");
+            if (Boolean.TRUE.equals(detachPending)) {
+                template.execute("ALTER TABLE refresh_tokens DETACH PARTITION " + name + " FINALIZE");
+            } else if (detachPending != null) {
+                template.execute("ALTER TABLE refresh_tokens DETACH PARTITION " + name + " CONCURRENTLY");
+            }
+            template.execute("DROP TABLE " + name);
+            droppedPartitions.increment();
+            dropped++;
+            logger.info("Dropped expired refresh token partition {}", name);
+        }
+        return dropped;
+    }
+
+    private void convert(LocalDate today) {
+        logger.info("Converting refresh_tokens to a table partitioned by expires_at");
+        jdbcTemplate.execute("ALTER TABLE refresh_tokens RENAME TO refresh_tokens_unpartitioned");
+        jdbcTemplate.execute("""
+                CREATE TABLE refresh_tokens (
+                  LIKE refresh_tokens_unpartitioned INCLUDING DEFAULTS INCLUDING CONSTRAINTS)
+                PARTITION BY RANGE (expires_at)
+                """);
+        // Constraint names are unique per schema and the renamed table still holds the old ones
+        jdbcTemplate.execute("""
+                ALTER TABLE refresh_tokens ADD CONSTRAINT refresh_tokens_partitioned_pkey
+                PRIMARY KEY (id, expires_at)
+                """);
+        jdbcTemplate.execute("""
+                ALTER TABLE refresh_tokens ADD CONSTRAINT refresh_tokens_partitioned_user_fkey
+                FOREIGN KEY (user_id) REFERENCES users (id)
+                """);
+
+        // Expired rows are not copied, they would be dropped with their partition anyway
+        LocalDate last = jdbcTemplate.queryForObject(
+                "SELECT (max(expires_at) AT TIME ZONE 'UTC')::date FROM refresh_tokens_unpartitioned", LocalDate.class);
+        for (LocalDate day = today; last != null && !day.isAfter(last); day = day.plusDays(1)) {
+            createPartition(jdbcTemplate, day);
+        }
+        createPartitions(today);
+        int copied = jdbcTemplate.update("""
+                INSERT INTO refresh_tokens SELECT * FROM refresh_tokens_unpartitioned
+                WHERE expires_at >= ?
+                """, today.atStartOfDay().atOffset(ZoneOffset.UTC));
+
+        jdbcTemplate.execute("DROP TABLE refresh_tokens_unpartitioned");
+
+        jdbcTemplate.execute("CREATE INDEX idx_refresh_tokens_token_id ON refresh_tokens (token_id)");
+        jdbcTemplate.execute(
+                "CREATE INDEX idx_refresh_tokens_user_active ON refresh_tokens (user_id, revoked, created_at)");
+        jdbcTemplate.execute("CREATE INDEX idx_refresh_tokens_expires_at ON refresh_tokens (expires_at)");
+        jdbcTemplate.execute("CREATE INDEX idx_refresh_tokens_revoked_at ON refresh_tokens (revoked_at)");
+        logger.info("Converted refresh_tokens to a partitioned table, copied {} unexpired rows", copied);
+    }
+
+    private void createPartition(JdbcTemplate template, LocalDate day) {
+        template.execute("CREATE TABLE IF NOT EXISTS " + PARTITION_PREFIX + PARTITION_SUFFIX.format(day)
+                + " PARTITION OF refresh_tokens FOR VALUES FROM ('" + day + " 00:00:00+00') TO ('"
+                + day.plusDays(1) + " 00:00:00+00')");
+    }
+
+    private static LocalDate partitionDay(String partition) {
+        if (!partition.startsWith(PARTITION_PREFIX)) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(partition.substring(PARTITION_PREFIX.length()), PARTITION_SUFFIX);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
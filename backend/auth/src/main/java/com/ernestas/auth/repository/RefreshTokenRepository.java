@@ -1,6 +1,7 @@
 package com.ernestas.auth.repository;
 
-import java.time.LocalDateTime;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -8,9 +9,10 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.ernestas.auth.model.RefreshToken;
-import com.ernestas.auth.model.User;
+import com.ernestas.auth.model.RefreshTokenState;
 
 /**
  * Repository interface for accessing and managing {@link RefreshToken}
@@ -19,50 +21,175 @@ import com.ernestas.auth.model.User;
 public interface RefreshTokenRepository extends JpaRepository<RefreshToken, Long> {
 
     /**
-     * Finds a refresh token by its token ID.
+     * Reads the validation state of a refresh token by its token ID, without
+     * loading the entity or its user.
      *
-     * @param tokenId the token ID to search for
-     * @return an {@link Optional} containing the refresh token if found, or empty
+     * @param tokenId the raw 32-byte token ID to search for
+     * @return an {@link Optional} containing the token state if found, or empty
      *         if not found
      */
-    Optional<RefreshToken> findByTokenId(String tokenId);
+    @Query("""
+            SELECT new com.ernestas.auth.model.RefreshTokenState(t.tokenId, t.hashedToken, t.expiresAt, t.revoked)
+            FROM RefreshToken t WHERE t.tokenId = :tokenId
+            """)
+    Optional<RefreshTokenState> findStateByTokenId(@Param("tokenId") byte[] tokenId);
 
     /**
-     * Finds all active (non-revoked and non-expired) refresh tokens for a user.
+     * Reads the validation state of the refresh tokens with any of the given
+     * token IDs in a single query, without loading the entities or their users.
      *
-     * @param user the user whose active tokens to find
-     * @param now  the current timestamp for expiration checking
-     * @return a list of active refresh tokens for the user
+     * @param tokenIds the raw 32-byte token IDs to search for
+     * @return the states of the tokens that exist, in no particular order
      */
-    @Query("SELECT rt FROM RefreshToken rt WHERE rt.user = :user AND rt.revoked = false AND rt.expiresAt > :now")
-    List<RefreshToken> findActiveTokensByUser(@Param("user") User user, @Param("now") LocalDateTime now);
+    @Query("""
+            SELECT new com.ernestas.auth.model.RefreshTokenState(t.tokenId, t.hashedToken, t.expiresAt, t.revoked)
+            FROM RefreshToken t WHERE t.tokenId IN :tokenIds
+            """)
+    List<RefreshTokenState> findStatesByTokenIdIn(@Param("tokenIds") Collection<byte[]> tokenIds);
+
+    /**
+     * Revokes a refresh token by its token ID in a single statement, without
+     * reading it first.
+     *
+     * @param tokenId   the raw 32-byte token ID
+     * @param revokedAt the revocation timestamp
+     * @return the number of tokens revoked, 0 if unknown or already revoked
+     */
+    @Modifying
+    @Query(value = """
+            UPDATE refresh_tokens SET revoked = true, revoked_at = :revokedAt
+            WHERE token_id = :tokenId AND revoked = false
+            """, nativeQuery = true)
+    int revokeByTokenId(@Param("tokenId") byte[] tokenId, @Param("revokedAt") Instant revokedAt);
+
+    /**
+     * Revokes the active refresh tokens of a user except the newest ones, in a
+     * single statement. Only active rows are read and written, through the
+     * (user_id, revoked, created_at) index, so the cost does not grow with the
+     * user's token history.
+     *
+     * @param userId the ID of the user whose tokens to cap
+     * @param keep   the number of newest active tokens to keep
+     * @param now    the revocation timestamp, also used for expiration checking
+     * @return the raw IDs of the tokens that were revoked
+     */
+    @Query(value = """
+            UPDATE refresh_tokens SET revoked = true, revoked_at = :now
+            WHERE user_id = :userId AND revoked = false AND expires_at > :now
+              AND id NOT IN (
+                SELECT id FROM refresh_tokens
+                WHERE user_id = :userId AND revoked = false AND expires_at > :now
+                ORDER BY created_at DESC, id DESC
+                LIMIT :keep)
+            RETURNING token_id
+            """, nativeQuery = true)
+    List<byte[]> revokeAllButNewest(@Param("userId") int userId, @Param("keep") int keep, @Param("now") Instant now);
+
+    /**
+     * Rotates a refresh token family in place if the presented token is its
+     * current generation, as a single compare-and-set statement. Of two
+     * concurrent calls for the same generation, at most one succeeds.
+     *
+     * @param tokenId        the raw family ID of the presented token
+     * @param generation     the generation of the presented token
+     * @param hashedTokens   the 32-byte digests the presented token value may
+     *                       be stored as
+     * @param newHashedToken the 32-byte digest of the successor token value
+     * @param newExpiresAt   when the successor expires
+     * @param now            the current timestamp for expiration checking
+     * @return the ID of the owning user if the family was rotated, or empty if
+     *         it is unknown, expired or revoked, or the presented token is not
+     *         its current generation
+     */
+    @Query(value = """
+            UPDATE refresh_tokens
+            SET hashed_token = :newHashedToken, generation = generation + 1, expires_at = :newExpiresAt
+            WHERE token_id = :tokenId AND generation = :generation AND hashed_token IN (:hashedTokens)
+              AND revoked = false AND expires_at > :now
+            RETURNING user_id
+            """, nativeQuery = true)
+    Optional<Integer> rotateFamily(@Param("tokenId") byte[] tokenId, @Param("generation") int generation,
+            @Param("hashedTokens") Collection<byte[]> hashedTokens, @Param("newHashedToken") byte[] newHashedToken,
+            @Param("newExpiresAt") Instant newExpiresAt, @Param("now") Instant now);
+
+    /**
+     * Revokes a refresh token family whose current generation is newer than the
+     * presented one, which means an already rotated token was replayed.
+     *
+     * @param tokenId    the raw family ID of the replayed token
+     * @param generation the generation of the replayed token
+     * @param revokedAt  the timestamp when the family was revoked
+     * @return the number of families that were revoked, 0 or 1
+     */
+    @Modifying
+    @Query(value = """
+            UPDATE refresh_tokens SET revoked = true, revoked_at = :revokedAt
+            WHERE token_id = :tokenId AND generation > :generation AND revoked = false
+            """, nativeQuery = true)
+    int revokeFamilyOnReuse(@Param("tokenId") byte[] tokenId, @Param("generation") int generation,
+            @Param("revokedAt") Instant revokedAt);
 
     /**
      * Revokes all active refresh tokens for a user.
      *
-     * @param user      the user whose tokens should be revoked
+     * @param userId    the ID of the user whose tokens should be revoked
      * @param revokedAt the timestamp when the tokens were revoked
-     * @return the number of tokens that were revoked
+     * @return the raw IDs of the tokens that were revoked
      */
-    @Modifying
-    @Query("UPDATE RefreshToken rt SET rt.revoked = true, rt.revokedAt = :revokedAt WHERE rt.user = :user AND rt.revoked = false")
-    int revokeAllTokensForUser(@Param("user") User user, @Param("revokedAt") LocalDateTime revokedAt);
+    @Query(value = """
+            UPDATE refresh_tokens SET revoked = true, revoked_at = :revokedAt
+            WHERE user_id = :userId AND revoked = false
+            RETURNING token_id
+            """, nativeQuery = true)
+    List<byte[]> revokeAllTokensForUser(@Param("userId") int userId, @Param("revokedAt") Instant revokedAt);
+
+    /**
+     * Deletes up to {@code limit} expired refresh tokens, oldest first, in its
+     * own transaction. The rows are picked through the expires_at index, so
+     * each batch locks a bounded number of rows.
+     *
+     * @param now   the current timestamp for expiration checking
+     * @param limit the maximum number of tokens to delete
+     * @return the raw IDs of the expired tokens that were deleted
+     */
+    @Transactional
+    @Query(value = """
+            DELETE FROM refresh_tokens WHERE id IN (
+              SELECT id FROM refresh_tokens WHERE expires_at < :now ORDER BY expires_at LIMIT :limit)
+            RETURNING token_id
+            """, nativeQuery = true)
+    List<byte[]> deleteExpiredBatch(@Param("now") Instant now, @Param("limit") int limit);
 
     /**
-     * Deletes all expired refresh tokens.
+     * Deletes up to {@code limit} refresh tokens revoked before the given
+     * timestamp, oldest revocation first, in its own transaction. The rows are
+     * picked through the revoked_at index.
+     *
+     * @param revokedBefore the end of the retention period for revoked tokens
+     * @param limit         the maximum number of tokens to delete
+     * @return the raw IDs of the revoked tokens that were deleted
+     */
+    @Transactional
+    @Query(value = """
+            DELETE FROM refresh_tokens WHERE id IN (
+              SELECT id FROM refresh_tokens WHERE revoked_at < :revokedBefore ORDER BY revoked_at LIMIT :limit)
+            RETURNING token_id
+            """, nativeQuery = true)
+    List<byte[]> deleteRevokedBatch(@Param("revokedBefore") Instant revokedBefore, @Param("limit") int limit);
+
+    /**
+     * Counts the refresh tokens that have expired.
      *
      * @param now the current timestamp for expiration checking
-     * @return the number of expired tokens that were deleted
+     * @return the number of expired tokens
      */
-    @Modifying
-    @Query("DELETE FROM RefreshToken rt WHERE rt.expiresAt < :now")
-    int deleteExpiredTokens(@Param("now") LocalDateTime now);
+    long countByExpiresAtBefore(Instant now);
 
     /**
-     * Finds all refresh tokens for a user, ordered by creation date descending.
+     * Counts the refresh tokens revoked before the given timestamp.
      *
-     * @param user the user whose tokens to find
-     * @return a list of refresh tokens for the user
+     * @param revokedBefore the end of the retention period for revoked tokens
+     * @return the number of such tokens
      */
-    List<RefreshToken> findByUserOrderByCreatedAtDesc(User user);
+    long countByRevokedAtBefore(Instant revokedBefore);
 }
@@ -3,6 +3,8 @@ package com.ernestas.auth.repository;
 import com.ernestas.auth.model.User;
 import java.util.Optional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 /**
  * Repository interface for accessing and managing {@link User} entities.
@@ -15,4 +17,40 @@ public interface UserRepository extends JpaRepository<User, Integer> {
      * @return an {@link Optional} containing the user if found, or empty if not found
      */
     Optional<User> findByEmail(String email);
+
+    /**
+     * Registers a user or updates their name in a single statement, writing
+     * nothing if the user exists with the same name.
+     *
+     * <p>
+     * The ID is only drawn from {@code users_seq} for a user that does not
+     * exist yet, so repeated sign-ins do not use up sequence values. A
+     * concurrent first sign-in with the same email is resolved through the
+     * unique email constraint. If that concurrent insert already set the same
+     * name, the row is not visible to this statement and nothing is returned;
+     * running it again returns the ID.
+     * </p>
+     *
+     * @param email the email address of the user, not null
+     * @param name  the current name of the user
+     * @return the ID of the registered or existing user, or empty if it was
+     *         registered concurrently with the same name
+     */
+    @Query(value = """
+            WITH inserted AS (
+              INSERT INTO users (id, email, name)
+              SELECT nextval('users_seq'), :email, :name
+              WHERE NOT EXISTS (SELECT 1 FROM users WHERE email = :email)
+              ON CONFLICT (email) DO UPDATE SET name = EXCLUDED.name
+              WHERE users.name IS DISTINCT FROM EXCLUDED.name
+              RETURNING id
+            ), updated AS (
+              UPDATE users SET name = :name
+              WHERE email = :email AND name IS DISTINCT FROM :name
+            )
+            SELECT id FROM inserted
+            UNION ALL
+            SELECT id FROM users WHERE email = :email
+            """, nativeQuery = true)
+    Optional<Integer> upsertByEmail(@Param("email") String email, @Param("name") String name);
 }
@@ -0,0 +1,106 @@
+package com.ernestas.auth.security;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.ernestas.auth.util.VerifiedToken;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Bounded in-memory cache of access tokens that already passed signature
+ * verification.
+ *
+ * <p>
+ * Entries are keyed by the SHA-256 digest of the raw token, so the cache never
+ * holds usable credentials, and each entry expires no later than the
+ * {@code exp} claim of its token. Hit, miss and eviction counters are published
+ * to the meter registry under the {@code accessTokens} cache name.
+ * </p>
+ */
+@Component
+public class AccessTokenCache {
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    private final Cache<ByteBuffer, VerifiedToken> cache;
+
+    /**
+     * Creates the cache and registers its metrics.
+     *
+     * @param maximumSize   the maximum number of cached tokens
+     * @param meterRegistry the registry to publish cache metrics to
+     */
+    public AccessTokenCache(
+            @Value("${jwt.access.cache.max-size:10000}") long maximumSize,
+            MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(Expiry.creating((ByteBuffer key, VerifiedToken token) -> timeToLive(token)))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "accessTokens");
+    }
+
+    /**
+     * Computes the cache key of a token, so that a lookup and the insert after
+     * a miss hash the token only once.
+     *
+     * @param token the raw access token
+     * @return the SHA-256 digest of the token
+     */
+    public ByteBuffer key(String token) {
+        return ByteBuffer.wrap(SHA_256.get().digest(token.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Returns the cached verification result for a token.
+     *
+     * @param key the key of the raw access token, from {@link #key}
+     * @return the verified token if cached and not yet expired, empty otherwise
+     */
+    public Optional<VerifiedToken> get(ByteBuffer key) {
+        return Optional.ofNullable(cache.getIfPresent(key));
+    }
+
+    /**
+     * Caches the verification result for a token until the token expires.
+     *
+     * @param key      the key of the raw access token, from {@link #key}
+     * @param verified the verification result of the token
+     */
+    public void put(ByteBuffer key, VerifiedToken verified) {
+        cache.put(key, verified);
+    }
+
+    /**
+     * Returns the number of cached tokens.
+     *
+     * @return the approximate number of entries in the cache
+     */
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    private static Duration timeToLive(VerifiedToken token) {
+        Duration remaining = Duration.between(Instant.now(), token.expiresAt());
+        return remaining.isNegative() ? Duration.ZERO : remaining;
+    }
+}
@@ -0,0 +1,246 @@
+package com.ernestas.auth.security;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import com.ernestas.auth.model.User;
+import com.ernestas.auth.util.VerifiedToken;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * In-memory denylist that revokes access tokens before they expire.
+ *
+ * <p>
+ * Access tokens carry no token ID, so revocation is per user: every access
+ * token of the user issued up to and including the revocation second is
+ * rejected. Tokens carry their issue time in whole seconds, so a token issued
+ * later within that second, e.g. by signing in again right after a logout, is
+ * rejected as well rather than letting a token issued just before the logout
+ * through. Because no revoked token outlives the access token lifetime, each
+ * entry is dropped that long after it was added.
+ * </p>
+ *
+ * <p>
+ * Lookups go through a Bloom filter first, so the common case of a user without
+ * a recent logout costs a few hash probes and no map access. The filter cannot
+ * forget keys, so it is kept in two generations that each cover one access
+ * token lifetime; the older generation is discarded once every key it holds
+ * has expired from the exact entries.
+ * </p>
+ *
+ * <p>
+ * The denylist is local to the node and does not survive restarts.
+ * </p>
+ */
+@Component
+public class AccessTokenDenylist {
+    private static final int HASH_FUNCTIONS = 7;
+    private static final int BITS_PER_ENTRY = 10;
+
+    private final Duration timeToLive;
+    private final int bitCount;
+    private final Cache<String, Instant> revokedThrough;
+    private volatile BloomFilter current;
+    private volatile BloomFilter previous;
+
+    /**
+     * Creates the denylist and registers its size metric.
+     *
+     * @param accessTokenExpiration the access token lifetime in milliseconds,
+     *                              which is how long each entry is kept
+     * @param expectedEntries       the expected number of revocations per access
+     *                              token lifetime, which sizes the Bloom filter
+     * @param meterRegistry         the registry to publish the denylist size to
+     */
+    public AccessTokenDenylist(
+            @Value("${jwt.access.expiration}") long accessTokenExpiration,
+            @Value("${jwt.access.denylist.expected-entries:10000}") int expectedEntries,
+            MeterRegistry meterRegistry) {
+        this.timeToLive = Duration.ofMillis(accessTokenExpiration);
+        this.bitCount = Math.max(64, expectedEntries * BITS_PER_ENTRY);
+        this.revokedThrough = Caffeine.newBuilder()
+                .expireAfterWrite(timeToLive)
+                .build();
+        Instant now = Instant.now();
+        this.current = new BloomFilter(bitCount, now);
+        this.previous = new BloomFilter(bitCount, now);
+
+        Gauge.builder("auth.access.denylist.size", revokedThrough, Cache::estimatedSize)
+                .description("Users whose access tokens are currently revoked")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Revokes every access token issued to the user up to the current second.
+     *
+     * @param user the user whose access tokens should be revoked
+     */
+    public void revoke(User user) {
+        revoke(user.getId(), user.getEmail(), Instant.now());
+    }
+
+    /**
+     * Revokes every access token issued to the user up to the current second,
+     * without loading the user.
+     *
+     * @param userId the ID of the user whose access tokens should be revoked
+     * @param email  the user's email, if known, to also revoke tokens that
+     *               identify the user by email only
+     */
+    public void revoke(int userId, @Nullable String email) {
+        revoke(userId, email, Instant.now());
+    }
+
+    /**
+     * Checks whether a verified access token has been revoked.
+     *
+     * @param token the verified token
+     * @return true if the token was issued no later than the second of a
+     *         revocation of its user
+     */
+    public boolean isRevoked(VerifiedToken token) {
+        // Every revocation covers the ID, so the email is only checked for tokens without one
+        boolean byEmail = token.userId() == null;
+        long hash = byEmail ? emailHash(token.email()) : idHash(token.userId());
+        BloomFilter latest = rotateIfNeeded(Instant.now());
+        if (!latest.mightContain(hash) && !previous.mightContain(hash)) {
+            return false;
+        }
+
+        Instant cutoff = revokedThrough.getIfPresent(byEmail ? emailKey(token.email()) : idKey(token.userId()));
+        return cutoff != null && !token.issuedAt().isAfter(cutoff);
+    }
+
+    /**
+     * Revokes every access token issued to the user up to and including the
+     * given instant's second.
+     */
+    void revoke(int userId, @Nullable String email, Instant now) {
+        Instant cutoff = now.truncatedTo(ChronoUnit.SECONDS);
+        BloomFilter latest = rotateIfNeeded(now);
+
+        revokedThrough.asMap().merge(idKey(userId), cutoff, AccessTokenDenylist::later);
+        latest.add(idHash(userId));
+        // Standard tokens issued before they carried the user ID identify the user by email only
+        if (email != null) {
+            revokedThrough.asMap().merge(emailKey(email), cutoff, AccessTokenDenylist::later);
+            latest.add(emailHash(email));
+        }
+    }
+
+    /**
+     * Starts a new Bloom filter generation once the current one is older than
+     * the access token lifetime.
+     */
+    private BloomFilter rotateIfNeeded(Instant now) {
+        BloomFilter latest = current;
+        if (Duration.between(latest.createdAt(), now).compareTo(timeToLive) < 0) {
+            return latest;
+        }
+        synchronized (this) {
+            if (Duration.between(current.createdAt(), now).compareTo(timeToLive) >= 0) {
+                previous = current;
+                current = new BloomFilter(bitCount, now);
+            }
+            return current;
+        }
+    }
+
+    private static Instant later(Instant a, Instant b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    private static String emailKey(String email) {
+        return "e:" + email;
+    }
+
+    private static String idKey(int userId) {
+        return "i:" + userId;
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters of the email, so the fast path does not
+     * allocate.
+     */
+    private static long emailHash(String email) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < email.length(); i++) {
+            h ^= email.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long idHash(int userId) {
+        // Offset so IDs and emails do not share a hash space
+        return mix(userId + 0x9e3779b97f4a7c15L);
+    }
+
+    /**
+     * MurmurHash3 finalizer, so both halves of the hash are usable as
+     * independent hashes.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Lock-free Bloom filter over 64-bit hashes using double hashing.
+     */
+    private static final class BloomFilter {
+        private final AtomicLongArray words;
+        private final int bits;
+        private final Instant createdAt;
+
+        BloomFilter(int bits, Instant createdAt) {
+            this.words = new AtomicLongArray((bits + 63) >>> 6);
+            this.bits = words.length() << 6;
+            this.createdAt = createdAt;
+        }
+
+        Instant createdAt() {
+            return createdAt;
+        }
+
+        void add(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                int bit = Math.floorMod(h1 + i * h2, bits);
+                long mask = 1L << bit;
+                int index = bit >>> 6;
+                long word;
+                do {
+                    word = words.get(index);
+                } while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask));
+            }
+        }
+
+        boolean mightContain(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                int bit = Math.floorMod(h1 + i * h2, bits);
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
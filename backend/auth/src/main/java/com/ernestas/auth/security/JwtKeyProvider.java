@@ -0,0 +1,435 @@
+package com.ernestas.auth.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.LocatorAdapter;
+import io.jsonwebtoken.ProtectedHeader;
+import io.jsonwebtoken.security.Jwks;
+import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.PublicJwk;
+import io.jsonwebtoken.security.SignatureAlgorithm;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Provides the keys used to sign and verify JWTs and the JWKS document that
+ * lets other services verify tokens locally.
+ *
+ * <p>
+ * With the default {@code HS256} algorithm tokens are signed with the shared
+ * {@code jwt.secret}, as before. With {@code ES256} or {@code EdDSA} tokens are
+ * signed with a private key and carry a {@code kid} header, and the matching
+ * public key is published on {@code /.well-known/jwks.json}. Tokens without a
+ * {@code kid} header are verified with the HMAC key, so sessions issued before
+ * switching algorithms stay valid until they expire; once
+ * {@code jwt.signing.hmac-accepted-until} has passed they are rejected. Outside
+ * the {@code dev} profile an asymmetric algorithm requires a configured key
+ * pair, as a key pair generated at startup would be lost on restart and
+ * unknown to other instances.
+ * </p>
+ *
+ * <p>
+ * Keys are rotated through configuration, so every instance and every restart
+ * agrees on which key signs at any point in time. A next key
+ * ({@code jwt.signing.next.*}) is published on the JWKS endpoint as soon as it
+ * is configured and starts signing at its {@code activates-at} instant. The
+ * current key keeps verifying tokens for one refresh token lifetime after that
+ * and is then dropped from the JWKS document. A previous key
+ * ({@code jwt.signing.previous.*}) only verifies tokens; it keeps sessions
+ * signed before a deployment valid once the former next key has become the
+ * current one. The key ring is replaced atomically, so readers never see a
+ * partially rotated state.
+ * </p>
+ */
+@Component
+public class JwtKeyProvider {
+    private static final Logger logger = LoggerFactory.getLogger(JwtKeyProvider.class);
+
+    private final String secret;
+    private final String algorithm;
+    private final String privateKeyPem;
+    private final String publicKeyPem;
+    private final String configuredKeyId;
+    private final String nextPrivateKeyPem;
+    private final String nextPublicKeyPem;
+    private final String nextKeyId;
+    @Nullable
+    private final Instant nextActivatesAt;
+    private final String previousPublicKeyPem;
+    private final String previousKeyId;
+    @Nullable
+    private final Instant hmacAcceptedUntil;
+    private final Duration retirementOverlap;
+    private final Duration prepublication;
+    private final String profile;
+
+    private JwtSigningKey hmacKey;
+    private volatile KeyRing ring;
+
+    /**
+     * Constructs a JwtKeyProvider from the signing configuration.
+     *
+     * @param secret                 the shared secret for HMAC signing and legacy
+     *                               token verification
+     * @param algorithm              the signing algorithm: HS256, ES256 or EdDSA
+     * @param privateKeyPem          the PKCS#8 PEM private key for asymmetric
+     *                               signing, or empty to generate a key pair at
+     *                               startup in the dev profile
+     * @param publicKeyPem           the X.509 PEM public key matching the private
+     *                               key
+     * @param configuredKeyId        the key ID to publish, or empty to use the JWK
+     *                               thumbprint
+     * @param nextPrivateKeyPem      the PKCS#8 PEM private key of the next signing
+     *                               key, or empty if no rotation is scheduled
+     * @param nextPublicKeyPem       the X.509 PEM public key of the next signing
+     *                               key
+     * @param nextKeyId              the key ID of the next signing key, or empty
+     *                               to use the JWK thumbprint
+     * @param nextActivatesAt        the ISO-8601 instant at which the next key
+     *                               starts signing tokens
+     * @param previousPublicKeyPem   the X.509 PEM public key of a former signing
+     *                               key that still verifies tokens, or empty
+     * @param previousKeyId          the key ID of the former signing key, or empty
+     *                               to use the JWK thumbprint
+     * @param hmacAcceptedUntil      the ISO-8601 instant after which tokens
+     *                               without a key ID are rejected when signing
+     *                               asymmetrically, or empty to accept them
+     * @param refreshTokenExpiration the expiration duration (in milliseconds) for
+     *                               refresh tokens, which is how long the current
+     *                               key keeps verifying tokens after the next key
+     *                               has taken over
+     * @param jwksMaxAge             how long (in seconds) clients may cache the
+     *                               JWKS document, which is how long a next key
+     *                               should be published before it signs tokens
+     * @param profile                the active Spring profile; a signing key pair
+     *                               is only generated at startup in {@code dev}
+     */
+    public JwtKeyProvider(
+            @Value("${jwt.secret}") String secret,
+            @Value("${jwt.signing.algorithm:HS256}") String algorithm,
+            @Value("${jwt.signing.private-key:}") String privateKeyPem,
+            @Value("${jwt.signing.public-key:}") String publicKeyPem,
+            @Value("${jwt.signing.key-id:}") String configuredKeyId,
+            @Value("${jwt.signing.next.private-key:}") String nextPrivateKeyPem,
+            @Value("${jwt.signing.next.public-key:}") String nextPublicKeyPem,
+            @Value("${jwt.signing.next.key-id:}") String nextKeyId,
+            @Value("${jwt.signing.next.activates-at:}") String nextActivatesAt,
+            @Value("${jwt.signing.previous.public-key:}") String previousPublicKeyPem,
+            @Value("${jwt.signing.previous.key-id:}") String previousKeyId,
+            @Value("${jwt.signing.hmac-accepted-until:}") String hmacAcceptedUntil,
+            @Value("${jwt.refresh.expiration}") long refreshTokenExpiration,
+            @Value("${jwt.jwks.max-age:300}") long jwksMaxAge,
+            @Value("${spring.profiles.active:dev}") String profile) {
+        this.secret = secret;
+        this.algorithm = algorithm;
+        this.privateKeyPem = privateKeyPem;
+        this.publicKeyPem = publicKeyPem;
+        this.configuredKeyId = configuredKeyId;
+        this.nextPrivateKeyPem = nextPrivateKeyPem;
+        this.nextPublicKeyPem = nextPublicKeyPem;
+        this.nextKeyId = nextKeyId;
+        this.nextActivatesAt = nextActivatesAt.isBlank() ? null : Instant.parse(nextActivatesAt);
+        this.previousPublicKeyPem = previousPublicKeyPem;
+        this.previousKeyId = previousKeyId;
+        this.hmacAcceptedUntil = hmacAcceptedUntil.isBlank() ? null : Instant.parse(hmacAcceptedUntil);
+        this.retirementOverlap = Duration.ofMillis(refreshTokenExpiration);
+        this.prepublication = Duration.ofSeconds(jwksMaxAge);
+        this.profile = profile;
+    }
+
+    /**
+     * Builds the HMAC key and, for asymmetric algorithms, loads or generates the
+     * current signing key pair and loads the configured next and previous keys.
+     *
+     * @throws IllegalStateException if the algorithm is unsupported, the
+     *                               configured keys cannot be loaded, the next
+     *                               key is incomplete, or no key pair is
+     *                               configured outside the dev profile
+     */
+    @PostConstruct
+    public void init() {
+        Key secretKey = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        this.hmacKey = new JwtSigningKey(null, null, secretKey, secretKey, null);
+
+        if ("HS256".equals(algorithm)) {
+            if (nextActivatesAt != null || !previousPublicKeyPem.isBlank()) {
+                logger.warn("JWT key rotation is not supported for HS256, the next and previous keys are ignored");
+            }
+            this.ring = KeyRing.of(hmacKey, null, null, null, null);
+        } else {
+            if (hmacAcceptedUntil == null) {
+                logger.warn("Tokens without a key ID are verified with the shared secret indefinitely, "
+                        + "set jwt.signing.hmac-accepted-until once they have expired");
+            }
+            SignatureAlgorithm signatureAlgorithm = signatureAlgorithm(algorithm);
+            JwtSigningKey current = createInitialKey(signatureAlgorithm);
+            JwtSigningKey next = createNextKey(signatureAlgorithm);
+            JwtSigningKey previous = previousPublicKeyPem.isBlank() ? null
+                    : createKey(signatureAlgorithm, loadPublicKey(previousPublicKeyPem), null, previousKeyId);
+            Instant currentRetiresAt = next != null ? nextActivatesAt.plus(retirementOverlap) : null;
+            this.ring = KeyRing.of(current, next, next != null ? nextActivatesAt : null, currentRetiresAt, previous);
+            if (next != null) {
+                logger.info("Next JWT signing key {} is published and signs from {}", next.keyId(), nextActivatesAt);
+                Instant now = Instant.now();
+                if (now.isBefore(nextActivatesAt) && now.plus(prepublication).isAfter(nextActivatesAt)) {
+                    logger.warn("Next JWT signing key {} activates within the JWKS max-age, verifiers with a "
+                            + "cached key set refetch it on first use", next.keyId());
+                }
+            }
+            retireKeys(Instant.now());
+        }
+
+        logger.info("JWT signing algorithm: {}, key ID: {}", algorithm, getSigningKey().keyId());
+    }
+
+    /**
+     * Drops the former signing key from the key ring once the next key has
+     * signed tokens for one refresh token lifetime, on a fixed schedule.
+     */
+    @Scheduled(fixedDelayString = "${jwt.signing.rotation-check-interval:60000}")
+    public void retireKeys() {
+        retireKeys(Instant.now());
+    }
+
+    /**
+     * Drops the former signing key from the key ring if its verification window
+     * has ended at the given point in time, and makes the next key the current
+     * one.
+     *
+     * @param now the current time
+     */
+    void retireKeys(Instant now) {
+        KeyRing current = ring;
+        if (current.activeRetiresAt() == null || now.isBefore(current.activeRetiresAt())) {
+            return;
+        }
+        this.ring = KeyRing.of(current.next(), null, null, null, current.previous());
+        logger.info("Retired JWT signing key {}, {} is the only signing key", current.active().keyId(),
+                current.next().keyId());
+    }
+
+    /**
+     * Returns the key that signs newly issued tokens.
+     *
+     * @return the active signing key
+     */
+    public JwtSigningKey getSigningKey() {
+        return ring.signingKey(Instant.now());
+    }
+
+    /**
+     * Returns the key that verifies tokens with the given {@code kid} header.
+     *
+     * @param keyId the key ID from the token header, or null for legacy tokens
+     * @return the verification key, or null if the key ID is unknown or tokens
+     *         without a key ID are no longer accepted
+     */
+    public Key getVerificationKey(String keyId) {
+        if (keyId == null) {
+            boolean hmacRetired = !"HS256".equals(algorithm) && hmacAcceptedUntil != null
+                    && !Instant.now().isBefore(hmacAcceptedUntil);
+            return hmacRetired ? null : hmacKey.verificationKey();
+        }
+        JwtSigningKey key = ring.verificationKey(keyId, Instant.now());
+        return key != null ? key.verificationKey() : null;
+    }
+
+    /**
+     * Creates a key locator for the JWT parser that selects the verification
+     * key by the {@code kid} header of each token.
+     *
+     * @return the key locator
+     */
+    public LocatorAdapter<Key> keyLocator() {
+        return new LocatorAdapter<>() {
+            @Override
+            protected Key locate(ProtectedHeader header) {
+                return getVerificationKey(header.getKeyId());
+            }
+        };
+    }
+
+    /**
+     * Returns the JWKS document with the public verification keys.
+     *
+     * @return the JWKS JSON document
+     */
+    public String getJwksJson() {
+        return ring.jwksJson();
+    }
+
+    /**
+     * Returns the entity tag of the current JWKS document.
+     *
+     * @return the quoted entity tag
+     */
+    public String getJwksEtag() {
+        return ring.jwksEtag();
+    }
+
+    private JwtSigningKey createInitialKey(SignatureAlgorithm signatureAlgorithm) {
+        if (privateKeyPem.isBlank() || publicKeyPem.isBlank()) {
+            if (!"dev".equals(profile)) {
+                throw new IllegalStateException("No JWT signing key pair configured for " + algorithm
+                        + ", set jwt.signing.private-key and jwt.signing.public-key");
+            }
+            logger.warn("No JWT signing key pair configured, generating an ephemeral {} key pair", algorithm);
+            KeyPair keyPair = "EdDSA".equals(algorithm)
+                    ? Jwks.CRV.Ed25519.keyPair().build()
+                    : signatureAlgorithm.keyPair().build();
+            return createKey(signatureAlgorithm, keyPair.getPublic(), keyPair.getPrivate(), configuredKeyId);
+        }
+        return createKey(signatureAlgorithm, loadPublicKey(publicKeyPem), loadPrivateKey(privateKeyPem),
+                configuredKeyId);
+    }
+
+    @Nullable
+    private JwtSigningKey createNextKey(SignatureAlgorithm signatureAlgorithm) {
+        boolean configured = !nextPrivateKeyPem.isBlank() || !nextPublicKeyPem.isBlank() || nextActivatesAt != null;
+        if (!configured) {
+            return null;
+        }
+        if (nextPrivateKeyPem.isBlank() || nextPublicKeyPem.isBlank() || nextActivatesAt == null) {
+            throw new IllegalStateException("Incomplete next JWT signing key, set jwt.signing.next.private-key, "
+                    + "jwt.signing.next.public-key and jwt.signing.next.activates-at");
+        }
+        return createKey(signatureAlgorithm, loadPublicKey(nextPublicKeyPem), loadPrivateKey(nextPrivateKeyPem),
+                nextKeyId);
+    }
+
+    private JwtSigningKey createKey(SignatureAlgorithm signatureAlgorithm, PublicKey publicKey,
+            @Nullable PrivateKey privateKey, String keyId) {
+        PublicJwk<?> publicJwk = buildPublicJwk(publicKey, keyId);
+        return new JwtSigningKey(publicJwk.getId(), signatureAlgorithm, privateKey, publicKey, publicJwk);
+    }
+
+    private PublicJwk<?> buildPublicJwk(PublicKey publicKey, String keyId) {
+        var builder = Jwks.builder().key(publicKey)
+                .algorithm(algorithm)
+                .publicKeyUse("sig");
+        return keyId.isBlank() ? builder.idFromThumbprint().build() : builder.id(keyId).build();
+    }
+
+    private PrivateKey loadPrivateKey(String pem) {
+        try {
+            return keyFactory().generatePrivate(new PKCS8EncodedKeySpec(decodePem(pem)));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new IllegalStateException("Failed to load JWT signing private key", e);
+        }
+    }
+
+    private PublicKey loadPublicKey(String pem) {
+        try {
+            return keyFactory().generatePublic(new X509EncodedKeySpec(decodePem(pem)));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new IllegalStateException("Failed to load JWT signing public key", e);
+        }
+    }
+
+    private KeyFactory keyFactory() throws GeneralSecurityException {
+        return KeyFactory.getInstance("ES256".equals(algorithm) ? "EC" : "EdDSA");
+    }
+
+    private static SignatureAlgorithm signatureAlgorithm(String algorithm) {
+        return switch (algorithm) {
+            case "ES256" -> Jwts.SIG.ES256;
+            case "EdDSA" -> Jwts.SIG.EdDSA;
+            default -> throw new IllegalStateException("Unsupported JWT signing algorithm: " + algorithm);
+        };
+    }
+
+    private static byte[] decodePem(String pem) {
+        String base64 = pem.replaceAll("-----(BEGIN|END) [A-Z ]+-----", "").replaceAll("\\s", "");
+        return Base64.getDecoder().decode(base64);
+    }
+
+    /**
+     * Immutable snapshot of the key ring, replaced as a whole on every change.
+     *
+     * @param active           the key that signs new tokens until the next key
+     *                         activates
+     * @param next             the published next signing key, if any
+     * @param nextActivatesAt  when the next key starts signing
+     * @param activeRetiresAt  when the active key stops verifying tokens after
+     *                         the next key has taken over
+     * @param previous         a former signing key that only verifies tokens, if
+     *                         any
+     * @param verificationKeys all asymmetric keys that verify tokens, by key ID
+     * @param jwksJson         the JWKS document of the verification keys
+     * @param jwksEtag         the entity tag of the JWKS document
+     */
+    private record KeyRing(
+            JwtSigningKey active,
+            @Nullable JwtSigningKey next,
+            @Nullable Instant nextActivatesAt,
+            @Nullable Instant activeRetiresAt,
+            @Nullable JwtSigningKey previous,
+            Map<String, JwtSigningKey> verificationKeys,
+            String jwksJson,
+            String jwksEtag) {
+
+        static KeyRing of(JwtSigningKey active, JwtSigningKey next, Instant nextActivatesAt,
+                Instant activeRetiresAt, JwtSigningKey previous) {
+            Map<String, JwtSigningKey> verificationKeys = new LinkedHashMap<>();
+            for (JwtSigningKey key : new JwtSigningKey[] { active, next, previous }) {
+                if (key != null && key.keyId() != null
+                        && verificationKeys.putIfAbsent(key.keyId(), key) != null) {
+                    throw new IllegalStateException("Duplicate JWT key ID: " + key.keyId());
+                }
+            }
+
+            StringBuilder json = new StringBuilder("{\"keys\":[");
+            String separator = "";
+            for (JwtSigningKey key : verificationKeys.values()) {
+                json.append(separator).append(Jwks.json(key.publicJwk()));
+                separator = ",";
+            }
+            String jwksJson = json.append("]}").toString();
+
+            return new KeyRing(active, next, nextActivatesAt, activeRetiresAt, previous,
+                    Map.copyOf(verificationKeys), jwksJson, buildEtag(jwksJson));
+        }
+
+        JwtSigningKey signingKey(Instant now) {
+            return next != null && !now.isBefore(nextActivatesAt) ? next : active;
+        }
+
+        @Nullable
+        JwtSigningKey verificationKey(String keyId, Instant now) {
+            JwtSigningKey key = verificationKeys.get(keyId);
+            boolean retired = key == active && activeRetiresAt != null && !now.isBefore(activeRetiresAt);
+            return retired ? null : key;
+        }
+
+        private static String buildEtag(String json) {
+            try {
+                byte[] hash = MessageDigest.getInstance("SHA-256").digest(json.getBytes(StandardCharsets.UTF_8));
+                return "\"" + HexFormat.of().formatHex(hash, 0, 16) + "\"";
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+    }
+}
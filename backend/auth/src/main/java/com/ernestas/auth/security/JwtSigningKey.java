@@ -0,0 +1,49 @@
+package com.ernestas.auth.security;
+
+import java.security.Key;
+import java.security.PrivateKey;
+
+import org.springframework.lang.Nullable;
+
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.security.PublicJwk;
+import io.jsonwebtoken.security.SignatureAlgorithm;
+
+/**
+ * A key used to sign and verify JWTs.
+ *
+ * <p>
+ * Asymmetric keys carry a key ID that is written to the {@code kid} header of
+ * every token they sign, and a public JWK that is published on the JWKS
+ * endpoint. The legacy HMAC key built from {@code jwt.secret} has neither.
+ * </p>
+ *
+ * @param keyId           the key ID, or null for the legacy HMAC key
+ * @param algorithm       the signature algorithm, or null to let the HMAC
+ *                        algorithm follow the secret length
+ * @param signingKey      the key used to sign tokens, or null for a key that
+ *                        only verifies tokens
+ * @param verificationKey the key used to verify token signatures
+ * @param publicJwk       the public JWK to publish, or null for the HMAC key
+ */
+public record JwtSigningKey(
+        @Nullable String keyId,
+        @Nullable SignatureAlgorithm algorithm,
+        @Nullable Key signingKey,
+        Key verificationKey,
+        @Nullable PublicJwk<?> publicJwk) {
+
+    /**
+     * Applies this key's {@code kid} header and signature to a JWT builder.
+     *
+     * @param builder the builder of the token to sign
+     * @return the same builder, ready to be compacted
+     */
+    public JwtBuilder signWith(JwtBuilder builder) {
+        if (algorithm == null) {
+            return builder.signWith(signingKey);
+        }
+        return builder.header().keyId(keyId).and()
+                .signWith((PrivateKey) signingKey, algorithm);
+    }
+}
@@ -0,0 +1,188 @@
+package com.ernestas.auth.security;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Coalesces concurrent refreshes of the same refresh token on this node.
+ *
+ * <p>
+ * Browser tabs sharing a refresh cookie refresh at the same moment once their
+ * access token expires. Only one rotation of a token can succeed, and a second
+ * one would be taken for a replay and revoke the session. So the first caller
+ * for a token ID rotates, and callers presenting the same token while that
+ * rotation is in flight wait for it and share its result, including its
+ * failure. A caller presenting a different token of the same family is not
+ * coalesced and is left to the database.
+ * </p>
+ *
+ * <p>
+ * A successful rotation is also kept for a short grace period, keyed by token
+ * ID. A caller presenting the just-rotated token within that period, such as a
+ * gateway retrying after a timeout, gets the already-issued successors instead
+ * of triggering reuse detection. Replayed successors of a session revoked in
+ * the meantime are rejected like any other revoked token. Both the in-flight
+ * and the recent rotations are local to the node.
+ * </p>
+ *
+ * <p>
+ * The number of callers waiting on this node is bounded, and so is how long
+ * each of them waits. A caller over either bound is rejected with a
+ * {@link RejectedExecutionException} without rotating, so it can retry with
+ * the same token.
+ * </p>
+ */
+@Component
+public class RefreshSingleFlight {
+    private final ConcurrentMap<String, Flight<?>> inFlight = new ConcurrentHashMap<>();
+    private final Cache<String, Flight<?>> recent;
+    private final Semaphore waiters;
+    private final long waitTimeoutMillis;
+    private final Counter coalesced;
+    private final Counter rejected;
+    private final Counter replayed;
+
+    /**
+     * Creates the coalescer and registers its metrics.
+     *
+     * @param maxWaiters        the maximum number of callers waiting for another
+     *                          caller's rotation on this node
+     * @param waitTimeoutMillis how long a caller waits for another caller's
+     *                          rotation, in milliseconds
+     * @param gracePeriodMillis how long a rotated token can still be exchanged
+     *                          for its successors, in milliseconds, 0 disables
+     * @param graceMaxSize      the maximum number of recent rotations kept
+     * @param meterRegistry     the registry to publish coalescing metrics to
+     */
+    public RefreshSingleFlight(
+            @Value("${jwt.refresh.single-flight.max-waiters:256}") int maxWaiters,
+            @Value("${jwt.refresh.single-flight.wait-timeout:5000}") long waitTimeoutMillis,
+            @Value("${jwt.refresh.grace.period:5000}") long gracePeriodMillis,
+            @Value("${jwt.refresh.grace.max-size:10000}") long graceMaxSize,
+            MeterRegistry meterRegistry) {
+        this.waiters = new Semaphore(maxWaiters);
+        this.waitTimeoutMillis = waitTimeoutMillis;
+        this.recent = Caffeine.newBuilder()
+                .maximumSize(gracePeriodMillis > 0 ? graceMaxSize : 0)
+                .expireAfterWrite(Duration.ofMillis(gracePeriodMillis))
+                .build();
+        this.coalesced = Counter.builder("auth.refresh.coalesced")
+                .description("Refreshes that shared the rotation of a concurrent refresh")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("auth.refresh.coalesce.rejected")
+                .description("Refreshes rejected because too many were waiting or the wait timed out")
+                .register(meterRegistry);
+        this.replayed = Counter.builder("auth.refresh.grace.replayed")
+                .description("Refreshes with a just-rotated token that got its successors again")
+                .register(meterRegistry);
+        Gauge.builder("auth.refresh.coalesce.waiters", waiters, permits -> maxWaiters - permits.availablePermits())
+                .description("Refreshes currently waiting for a concurrent rotation")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Rotates a refresh token, or shares the result of a rotation of the same
+     * token already in flight or completed within the grace period.
+     *
+     * @param tokenId        the family ID of the presented token
+     * @param presentedToken the presented refresh token
+     * @param rotation       rotates the presented token, returning its
+     *                       successors or empty if it cannot be rotated
+     * @param <T>            the type of the successors
+     * @return the successors from this caller's, the in-flight or a recent
+     *         rotation, or empty if the token cannot be rotated
+     * @throws RejectedExecutionException if too many callers are waiting or the
+     *                                    in-flight rotation took too long
+     */
+    public <T> Optional<T> rotate(String tokenId, String presentedToken, Supplier<Optional<T>> rotation) {
+        Flight<Optional<T>> own = new Flight<>(presentedToken);
+        Flight<?> current = inFlight.putIfAbsent(tokenId, own);
+        if (current == null) {
+            return lead(tokenId, own, rotation);
+        }
+        if (!current.presentedToken.equals(presentedToken)) {
+            return rotation.get();
+        }
+
+        if (!waiters.tryAcquire()) {
+            rejected.increment();
+            throw new RejectedExecutionException("Too many refreshes waiting for a concurrent rotation");
+        }
+        try {
+            coalesced.increment();
+            @SuppressWarnings("unchecked")
+            Optional<T> result = (Optional<T>) current.result.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+            return result;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Concurrent rotation failed", e.getCause());
+        } catch (TimeoutException e) {
+            rejected.increment();
+            throw new RejectedExecutionException("Timed out waiting for a concurrent rotation", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a concurrent rotation", e);
+        } finally {
+            waiters.release();
+        }
+    }
+
+    private <T> Optional<T> lead(String tokenId, Flight<Optional<T>> flight, Supplier<Optional<T>> rotation) {
+        try {
+            Flight<?> previous = recent.getIfPresent(tokenId);
+            if (previous != null && previous.presentedToken.equals(flight.presentedToken)) {
+                replayed.increment();
+                @SuppressWarnings("unchecked")
+                Optional<T> result = (Optional<T>) previous.result.join();
+                flight.result.complete(result);
+                return result;
+            }
+
+            Optional<T> result = rotation.get();
+            flight.result.complete(result);
+            if (result.isPresent()) {
+                // Kept before the flight is removed, so a late caller always finds one of them
+                recent.put(tokenId, flight);
+            }
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(tokenId, flight);
+        }
+    }
+
+    /**
+     * A rotation, in flight or recent, and the token it rotates.
+     */
+    private static final class Flight<T> {
+        private final String presentedToken;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private Flight(String presentedToken) {
+            this.presentedToken = presentedToken;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.ernestas.auth.security;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.ernestas.auth.model.RefreshTokenState;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Bounded read-through cache of the validation state of stored refresh tokens,
+ * keyed by raw token ID.
+ *
+ * <p>
+ * Lookups of the same token ID are coalesced: while a token is being loaded,
+ * other callers wait for that load instead of querying the database again,
+ * and an invalidation waits for it too, so a load that raced with a
+ * revocation never leaves a stale entry behind. Unknown token IDs are not
+ * cached. Each entry expires after the configured time to live, and never
+ * later than the {@code expiresAt} of its token.
+ * </p>
+ *
+ * <p>
+ * Cached states are immutable projections that hold no entity or user. The
+ * cache is local to the node: revocations on other nodes are seen once the entry
+ * expires, so the time to live bounds how stale a lookup can be. Hit, miss
+ * and eviction counters are published to the meter registry under the
+ * {@code refreshTokens} cache name.
+ * </p>
+ */
+@Component
+public class RefreshTokenCache {
+    private final Cache<ByteBuffer, RefreshTokenState> cache;
+    private final Duration timeToLive;
+
+    /**
+     * Creates the cache and registers its metrics.
+     *
+     * @param maximumSize      the maximum number of cached tokens
+     * @param timeToLiveMillis how long a token is cached at most, in
+     *                         milliseconds
+     * @param meterRegistry    the registry to publish cache metrics to
+     */
+    public RefreshTokenCache(
+            @Value("${jwt.refresh.cache.max-size:10000}") long maximumSize,
+            @Value("${jwt.refresh.cache.ttl:30000}") long timeToLiveMillis,
+            MeterRegistry meterRegistry) {
+        this.timeToLive = Duration.ofMillis(timeToLiveMillis);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(Expiry.creating((ByteBuffer key, RefreshTokenState token) -> timeToLive(token)))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "refreshTokens");
+    }
+
+    /**
+     * Returns the cached token state, loading and caching it on a miss.
+     *
+     * @param tokenId the raw token ID
+     * @param loader  loads the token state from the database
+     * @return the cached or loaded token state, or empty if it does not exist
+     */
+    public Optional<RefreshTokenState> get(byte[] tokenId, Function<byte[], Optional<RefreshTokenState>> loader) {
+        return Optional.ofNullable(cache.get(ByteBuffer.wrap(tokenId), key -> loader.apply(tokenId).orElse(null)));
+    }
+
+    /**
+     * Returns the cached states of many tokens, loading all misses with a
+     * single call. Unlike single lookups, a bulk load is not coalesced with
+     * concurrent loads of the same tokens, and a state it read before a
+     * concurrent invalidation may stay cached until it expires.
+     *
+     * @param tokenIds the raw token IDs
+     * @param loader   loads the states of the missing tokens from the database
+     * @return the cached or loaded states of the tokens that exist, by raw
+     *         token ID
+     */
+    public Map<ByteBuffer, RefreshTokenState> getAll(Collection<byte[]> tokenIds,
+            Function<List<byte[]>, List<RefreshTokenState>> loader) {
+        List<ByteBuffer> keys = new ArrayList<>(tokenIds.size());
+        for (byte[] tokenId : tokenIds) {
+            keys.add(ByteBuffer.wrap(tokenId));
+        }
+        return cache.getAll(keys, missing -> {
+            List<byte[]> missingIds = new ArrayList<>(missing.size());
+            for (ByteBuffer key : missing) {
+                missingIds.add(key.array());
+            }
+            Map<ByteBuffer, RefreshTokenState> loaded = new HashMap<>();
+            for (RefreshTokenState token : loader.apply(missingIds)) {
+                loaded.put(ByteBuffer.wrap(token.tokenId()), token);
+            }
+            return loaded;
+        });
+    }
+
+    /**
+     * Removes a token from the cache, waiting for a load of it in progress.
+     *
+     * @param tokenId the raw token ID
+     */
+    public void invalidate(byte[] tokenId) {
+        cache.invalidate(ByteBuffer.wrap(tokenId));
+    }
+
+    /**
+     * Removes tokens from the cache, waiting for loads of them in progress.
+     *
+     * @param tokenIds the raw token IDs
+     */
+    public void invalidateAll(Collection<byte[]> tokenIds) {
+        for (byte[] tokenId : tokenIds) {
+            invalidate(tokenId);
+        }
+    }
+
+    /**
+     * Returns the number of cached tokens.
+     *
+     * @return the approximate number of entries in the cache
+     */
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    private Duration timeToLive(RefreshTokenState token) {
+        Duration remaining = Duration.between(Instant.now(), token.expiresAt());
+        if (remaining.isNegative()) {
+            return Duration.ZERO;
+        }
+        return remaining.compareTo(timeToLive) < 0 ? remaining : timeToLive;
+    }
+}
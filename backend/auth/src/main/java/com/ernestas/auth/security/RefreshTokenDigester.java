@@ -0,0 +1,161 @@
+package com.ernestas.auth.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Computes the digests refresh tokens are stored as.
+ *
+ * <p>
+ * A digest is the HMAC-SHA256 of the token's signature segment, keyed with a
+ * server-side pepper. The signature is the only part of a JWT that is not
+ * readable from the token itself, and a presented token has already been
+ * verified against its header and payload, so hashing the signature alone is
+ * enough to bind the stored row to the token. Without the pepper, a copy of
+ * the {@code refresh_tokens} table cannot be used to check guessed tokens.
+ * </p>
+ *
+ * <p>
+ * Each thread owns a keyed {@link Mac}, a SHA-256 {@link MessageDigest} for
+ * legacy digests and a buffer for the token bytes, so computing a digest
+ * allocates only its 32-byte result. The pepper defaults
+ * to {@code jwt.secret}, from which the HMAC key is derived under a separate
+ * label so that the two never share a key.
+ * </p>
+ *
+ * <p>
+ * Tokens issued before keyed digests were stored as the SHA-256 of the whole
+ * token. While {@code jwt.refresh.digest.accept-legacy} is enabled those still
+ * match, so existing sessions survive the upgrade; it can be disabled once
+ * every such token has expired.
+ * </p>
+ */
+@Component
+public class RefreshTokenDigester {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int MIN_PEPPER_BYTES = 32;
+    private static final byte[] KEY_LABEL = "refresh-token-digest".getBytes(StandardCharsets.US_ASCII);
+
+    private final SecretKeySpec key;
+    private final boolean acceptLegacy;
+    private final ThreadLocal<Source> sources = ThreadLocal.withInitial(Source::new);
+
+    /**
+     * Creates the digester.
+     *
+     * @param pepper       the server-side secret the digests are keyed with
+     * @param acceptLegacy whether unkeyed SHA-256 digests of whole tokens still
+     *                     match
+     * @throws IllegalArgumentException if the pepper is shorter than 32 bytes
+     */
+    public RefreshTokenDigester(
+            @Value("${jwt.refresh.digest.pepper:${jwt.secret}}") String pepper,
+            @Value("${jwt.refresh.digest.accept-legacy:true}") boolean acceptLegacy) {
+        byte[] pepperBytes = pepper.getBytes(StandardCharsets.UTF_8);
+        if (pepperBytes.length < MIN_PEPPER_BYTES) {
+            throw new IllegalArgumentException("jwt.refresh.digest.pepper must be at least 32 bytes");
+        }
+        this.key = new SecretKeySpec(newMac(new SecretKeySpec(pepperBytes, ALGORITHM)).doFinal(KEY_LABEL), ALGORITHM);
+        this.acceptLegacy = acceptLegacy;
+    }
+
+    /**
+     * Computes the digest a token is stored as.
+     *
+     * @param token the refresh token
+     * @return the 32-byte keyed digest of the token's signature
+     */
+    public byte[] digest(String token) {
+        return sources.get().digest(token);
+    }
+
+    /**
+     * Computes every digest a stored token may match: the keyed digest and,
+     * while legacy digests are accepted, the SHA-256 of the whole token.
+     *
+     * @param token the refresh token
+     * @return the keyed digest first, then the legacy digest if accepted
+     */
+    public List<byte[]> candidates(String token) {
+        Source source = sources.get();
+        return acceptLegacy ? List.of(source.digest(token), source.legacyDigest(token))
+                : List.of(source.digest(token));
+    }
+
+    /**
+     * Checks in constant time whether a token matches a stored digest. The
+     * legacy digest is only computed if the keyed one does not match.
+     *
+     * @param token        the presented refresh token
+     * @param storedDigest the stored digest
+     * @return true if the token matches the stored digest
+     */
+    public boolean matches(String token, byte[] storedDigest) {
+        Source source = sources.get();
+        if (MessageDigest.isEqual(source.digest(token), storedDigest)) {
+            return true;
+        }
+        return acceptLegacy && MessageDigest.isEqual(source.legacyDigest(token), storedDigest);
+    }
+
+    private static Mac newMac(SecretKeySpec key) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Per-thread keyed MAC, legacy SHA-256 digest and token buffer.
+     */
+    private final class Source {
+        private final Mac mac = newMac(key);
+        private final MessageDigest sha256 = newSha256();
+        private byte[] buffer = new byte[512];
+
+        private byte[] digest(String token) {
+            int start = token.lastIndexOf('.') + 1;
+            int length = fill(token, start);
+            mac.update(buffer, 0, length);
+            return mac.doFinal();
+        }
+
+        private byte[] legacyDigest(String token) {
+            int length = fill(token, 0);
+            sha256.update(buffer, 0, length);
+            return sha256.digest();
+        }
+
+        private int fill(String token, int start) {
+            int length = token.length() - start;
+            if (length > buffer.length) {
+                buffer = new byte[length];
+            }
+            // A JWT is Base64url segments and dots, one byte per character
+            for (int i = 0; i < length; i++) {
+                buffer[i] = (byte) token.charAt(start + i);
+            }
+            return length;
+        }
+    }
+}
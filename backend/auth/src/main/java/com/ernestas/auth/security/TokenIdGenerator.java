@@ -0,0 +1,88 @@
+package com.ernestas.auth.security;
+
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Generates random refresh token IDs without a shared source of randomness.
+ *
+ * <p>
+ * Each thread owns a DRBG instance (HMAC_DRBG with 256-bit security strength)
+ * and a buffer holding random bytes for a batch of IDs, so generating an ID is
+ * a copy and a Base64 encode, with no lock shared between request threads. A
+ * thread's DRBG reseeds from the system entropy source after every
+ * {@code reseedInterval} buffer refills, so a long-lived thread keeps mixing in
+ * fresh entropy.
+ * </p>
+ */
+@Component
+public class TokenIdGenerator {
+    /** Random bytes per ID, encoded as 43 Base64url characters. */
+    private static final int ID_BYTES = 32;
+
+    private static final int IDS_PER_BUFFER = 64;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private final long reseedInterval;
+    private final ThreadLocal<Source> sources = ThreadLocal.withInitial(Source::new);
+
+    /**
+     * Creates the generator.
+     *
+     * @param reseedInterval the number of buffer refills after which a thread's
+     *                       DRBG is reseeded
+     */
+    public TokenIdGenerator(@Value("${jwt.refresh.token-id.reseed-interval:1024}") long reseedInterval) {
+        this.reseedInterval = reseedInterval;
+    }
+
+    /**
+     * Generates a new token ID.
+     *
+     * @return 32 random bytes, Base64url-encoded without padding
+     */
+    public String nextTokenId() {
+        return ENCODER.encodeToString(sources.get().next());
+    }
+
+    /**
+     * Per-thread DRBG and pre-filled buffer.
+     */
+    private final class Source {
+        private final SecureRandom random;
+        private final byte[] buffer = new byte[ID_BYTES * IDS_PER_BUFFER];
+        private final byte[] id = new byte[ID_BYTES];
+        private int position = buffer.length;
+        private long refills;
+
+        private Source() {
+            try {
+                this.random = SecureRandom.getInstance("DRBG",
+                        DrbgParameters.instantiation(256, DrbgParameters.Capability.RESEED_ONLY, null));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("DRBG is not available", e);
+            }
+        }
+
+        private byte[] next() {
+            if (position == buffer.length) {
+                if (++refills % reseedInterval == 0) {
+                    random.reseed();
+                }
+                random.nextBytes(buffer);
+                position = 0;
+            }
+            System.arraycopy(buffer, position, id, 0, ID_BYTES);
+            // Consumed bytes are wiped so they never sit in memory twice
+            Arrays.fill(buffer, position, position + ID_BYTES, (byte) 0);
+            position += ID_BYTES;
+            return id;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.ernestas.auth.service;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.ernestas.auth.repository.RefreshTokenRepository;
+import com.ernestas.auth.security.RefreshTokenCache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Purges expired refresh tokens, and revoked ones once their retention period
+ * has passed, without long-running statements.
+ *
+ * <p>
+ * Rows are deleted in bounded batches, each in its own transaction and picked
+ * in index order, so no batch holds more than a batch worth of row locks. The
+ * batch size adapts to the observed statement latency: it is halved when a
+ * batch takes longer than the target latency and grows again while batches
+ * stay well below it. After each batch the purge pauses for as long as the
+ * batch took, so it never keeps the database busy more than half the time.
+ * A run stops after a maximum duration and the next run picks up the rest.
+ * Each batch returns the IDs of the deleted tokens, which are evicted from the
+ * {@link RefreshTokenCache} once the batch has committed.
+ * </p>
+ *
+ * <p>
+ * With partitioned storage, expired tokens are left to
+ * {@link com.ernestas.auth.repository.RefreshTokenPartitionManager}, which
+ * drops whole partitions, and only revoked tokens are purged here.
+ * </p>
+ *
+ * <p>
+ * Deleted rows, the backlog still to be deleted, the deletion rate of the last
+ * run and the batch latency are published to the meter registry.
+ * </p>
+ */
+@Service
+public class RefreshTokenPurgeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RefreshTokenPurgeService.class);
+    private static final int MIN_BATCH_SIZE = 10;
+
+    private final long targetBatchLatencyMillis;
+    private final long revokedRetentionMillis;
+    private final long maxDurationMillis;
+    private final int maxBatchSize;
+    private final boolean partitioned;
+    private final Purge expired;
+    private final Purge revoked;
+    private final Timer batchTimer;
+    private final RefreshTokenCache refreshTokenCache;
+    private int batchSize;
+    /** The deletion rate of the last run in rows per second, as the bits of a double. */
+    private final AtomicLong lastRate = new AtomicLong();
+
+    /**
+     * Creates the purge service and registers its metrics.
+     *
+     * @param refreshTokenRepository   the repository for refresh token persistence
+     * @param refreshTokenCache        the cache to evict deleted tokens from
+     * @param maxBatchSize             the maximum number of rows deleted per
+     *                                 statement
+     * @param targetBatchLatencyMillis the statement latency, in milliseconds,
+     *                                 above which the batch size is reduced
+     * @param revokedRetentionMillis   how long revoked tokens are kept, in
+     *                                 milliseconds
+     * @param maxDurationMillis        the maximum duration of a single run, in
+     *                                 milliseconds
+     * @param partitioned              whether refresh tokens are stored in daily
+     *                                 partitions that are dropped once expired
+     * @param meterRegistry            the registry to publish purge metrics to
+     * @throws IllegalArgumentException if the maximum batch size is less than
+     *                                  the minimum of 10
+     */
+    public RefreshTokenPurgeService(
+            RefreshTokenRepository refreshTokenRepository,
+            RefreshTokenCache refreshTokenCache,
+            @Value("${jwt.refresh.purge.batch-size:1000}") int maxBatchSize,
+            @Value("${jwt.refresh.purge.target-batch-latency:100}") long targetBatchLatencyMillis,
+            @Value("${jwt.refresh.purge.revoked-retention:604800000}") long revokedRetentionMillis,
+            @Value("${jwt.refresh.purge.max-duration:600000}") long maxDurationMillis,
+            @Value("${jwt.refresh.storage.partitioned:false}") boolean partitioned,
+            MeterRegistry meterRegistry) {
+        if (maxBatchSize < MIN_BATCH_SIZE) {
+            throw new IllegalArgumentException("jwt.refresh.purge.batch-size must be at least " + MIN_BATCH_SIZE);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.batchSize = maxBatchSize;
+        this.targetBatchLatencyMillis = targetBatchLatencyMillis;
+        this.revokedRetentionMillis = revokedRetentionMillis;
+        this.maxDurationMillis = maxDurationMillis;
+        this.partitioned = partitioned;
+        this.refreshTokenCache = refreshTokenCache;
+        this.expired = new Purge("expired", refreshTokenRepository::deleteExpiredBatch,
+                refreshTokenRepository::countByExpiresAtBefore, meterRegistry);
+        this.revoked = new Purge("revoked", refreshTokenRepository::deleteRevokedBatch,
+                refreshTokenRepository::countByRevokedAtBefore, meterRegistry);
+        this.batchTimer = Timer.builder("auth.refresh.purge.batch")
+                .description("Latency of a single refresh token purge statement")
+                .register(meterRegistry);
+
+        Gauge.builder("auth.refresh.purge.rate", lastRate, bits -> Double.longBitsToDouble(bits.get()))
+                .description("Refresh tokens deleted per second during the last purge run")
+                .baseUnit("rows/s")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs one purge: deletes expired tokens, unless partitions take care of
+     * them, then tokens revoked before the retention period, until none are
+     * left or the maximum duration is reached.
+     *
+     * @return the number of tokens that were deleted
+     */
+    public synchronized long purge() {
+        Instant now = Instant.now();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxDurationMillis);
+
+        long deleted = partitioned ? 0 : purge(expired, now, deadline);
+        deleted += purge(revoked, now.minusMillis(revokedRetentionMillis), deadline);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double rate = seconds > 0 ? deleted / seconds : 0;
+        lastRate.set(Double.doubleToLongBits(rate));
+        if (deleted > 0) {
+            logger.info("Purged {} refresh tokens at {} rows/s, {} expired and {} revoked left", deleted,
+                    Math.round(rate), expired.backlog.get(), revoked.backlog.get());
+        }
+        return deleted;
+    }
+
+    /**
+     * Current batch size, as adapted to the observed statement latency.
+     */
+    synchronized int batchSize() {
+        return batchSize;
+    }
+
+    private long purge(Purge purge, Instant cutoff, long deadline) {
+        purge.backlog.set(purge.count.apply(cutoff));
+
+        long deleted = 0;
+        while (System.nanoTime() < deadline) {
+            int limit = batchSize;
+            long batchStart = System.nanoTime();
+            List<byte[]> deletedIds = purge.delete.apply(cutoff, limit);
+            long latency = System.nanoTime() - batchStart;
+            refreshTokenCache.invalidateAll(deletedIds);
+            int batch = deletedIds.size();
+
+            batchTimer.record(latency, TimeUnit.NANOSECONDS);
+            purge.deleted.increment(batch);
+            purge.backlog.updateAndGet(backlog -> Math.max(0, backlog - batch));
+            deleted += batch;
+            adaptBatchSize(TimeUnit.NANOSECONDS.toMillis(latency));
+
+            if (batch < limit || !pause(latency)) {
+                break;
+            }
+        }
+        return deleted;
+    }
+
+    private void adaptBatchSize(long latencyMillis) {
+        if (latencyMillis > targetBatchLatencyMillis) {
+            batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+        } else if (latencyMillis < targetBatchLatencyMillis / 2) {
+            batchSize = Math.min(maxBatchSize, batchSize + batchSize / 4);
+        }
+    }
+
+    /**
+     * Sleeps for as long as the last batch took.
+     *
+     * @return false if the thread was interrupted and the run should stop
+     */
+    private static boolean pause(long latencyNanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(latencyNanos);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * One kind of purgeable token with its statements and metrics.
+     */
+    private static final class Purge {
+        private final BiFunction<Instant, Integer, List<byte[]>> delete;
+        private final Function<Instant, Long> count;
+        private final Counter deleted;
+        private final AtomicLong backlog = new AtomicLong();
+
+        private Purge(String reason, BiFunction<Instant, Integer, List<byte[]>> delete,
+                Function<Instant, Long> count, MeterRegistry meterRegistry) {
+            this.delete = delete;
+            this.count = count;
+            this.deleted = Counter.builder("auth.refresh.purge.deleted")
+                    .description("Refresh tokens deleted by the purge")
+                    .tag("reason", reason)
+                    .register(meterRegistry);
+            Gauge.builder("auth.refresh.purge.backlog", backlog, AtomicLong::get)
+                    .description("Refresh tokens waiting to be purged")
+                    .tag("reason", reason)
+                    .register(meterRegistry);
+        }
+    }
+}
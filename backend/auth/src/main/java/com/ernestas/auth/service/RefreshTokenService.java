@@ -1,43 +1,94 @@
 package com.ernestas.auth.service;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.time.LocalDateTime;
+import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.ernestas.auth.model.RefreshToken;
+import com.ernestas.auth.model.RefreshTokenState;
 import com.ernestas.auth.model.User;
 import com.ernestas.auth.repository.RefreshTokenRepository;
+import com.ernestas.auth.security.RefreshTokenCache;
+import com.ernestas.auth.security.RefreshTokenDigester;
+import com.ernestas.auth.security.TokenIdGenerator;
 
 /**
  * Service class for managing refresh token lifecycle including creation,
  * validation, and rotation.
+ *
+ * <p>
+ * Token IDs travel as 43 Base64url characters but are stored as their raw 32
+ * bytes, and token values as the keyed digest computed by
+ * {@link RefreshTokenDigester}. An ID that does not decode to 32 bytes cannot
+ * exist in storage and is treated as unknown without a query. Stored digests
+ * are compared in constant time.
+ * </p>
+ *
+ * <p>
+ * Reads fetch only the columns validation needs, as a
+ * {@link RefreshTokenState}, and never the user, and revocation is a single
+ * update. {@link #isActiveFamily}, which a refresh checks before rotating, and
+ * {@link #findValidTokens}, which introspection uses, read through a
+ * {@link RefreshTokenCache}. Every change to a stored token evicts it from the cache, both right away and
+ * again once the transaction has completed, so a lookup that raced with the
+ * change cannot cache the row as it was before the commit.
+ * </p>
  */
 @Service
 @Transactional
 public class RefreshTokenService {
 
     private static final Logger logger = LoggerFactory.getLogger(RefreshTokenService.class);
-    private static final int MAX_ACTIVE_TOKENS_PER_USER = 5;
-    private static final SecureRandom secureRandom = new SecureRandom();
+    private static final int TOKEN_ID_BYTES = 32;
+    private static final Base64.Decoder TOKEN_ID_DECODER = Base64.getUrlDecoder();
 
     private final RefreshTokenRepository refreshTokenRepository;
+    private final TokenIdGenerator tokenIdGenerator;
+    private final RefreshTokenDigester tokenDigester;
+    private final RefreshTokenCache refreshTokenCache;
+    private final int maxActiveTokensPerUser;
 
     /**
      * Constructor for RefreshTokenService.
      *
      * @param refreshTokenRepository the repository for refresh token persistence
+     * @param tokenIdGenerator       the generator of random token IDs
+     * @param tokenDigester          the digester of stored token values
+     * @param refreshTokenCache      the cache of stored refresh tokens
+     * @param maxActiveTokensPerUser the maximum number of active refresh tokens,
+     *                               and so of concurrent sessions, per user
+     * @throws IllegalArgumentException if the maximum is less than one
      */
-    public RefreshTokenService(RefreshTokenRepository refreshTokenRepository) {
+    public RefreshTokenService(
+            RefreshTokenRepository refreshTokenRepository,
+            TokenIdGenerator tokenIdGenerator,
+            RefreshTokenDigester tokenDigester,
+            RefreshTokenCache refreshTokenCache,
+            @Value("${jwt.refresh.max-active-per-user:5}") int maxActiveTokensPerUser) {
+        if (maxActiveTokensPerUser < 1) {
+            throw new IllegalArgumentException("jwt.refresh.max-active-per-user must be at least 1");
+        }
         this.refreshTokenRepository = refreshTokenRepository;
+        this.tokenIdGenerator = tokenIdGenerator;
+        this.tokenDigester = tokenDigester;
+        this.refreshTokenCache = refreshTokenCache;
+        this.maxActiveTokensPerUser = maxActiveTokensPerUser;
     }
 
     /**
@@ -46,46 +97,34 @@ public class RefreshTokenService {
      * @return a cryptographically secure random token ID
      */
     public String generateTokenId() {
-        byte[] bytes = new byte[32];
-        secureRandom.nextBytes(bytes);
-        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        return tokenIdGenerator.nextTokenId();
     }
 
     /**
-     * Hashes a token value using SHA-256.
-     *
-     * @param token the token to hash
-     * @return the hashed token
-     * @throws RuntimeException if hashing fails
-     */
-    private String hashToken(String token) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(token.getBytes());
-            return Base64.getEncoder().encodeToString(hash);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Failed to hash token", e);
-        }
-    }
-
-    /**
-     * Stores a refresh token in the database with automatic cleanup of old tokens.
+     * Stores the first token of a new refresh token family, that is a new
+     * session, with automatic cleanup of old sessions.
      *
      * @param tokenId    the unique identifier for the token
      * @param tokenValue the actual token value to be hashed and stored
      * @param user       the user this token belongs to
      * @param expiresAt  when this token expires
      * @return the persisted RefreshToken entity
+     * @throws IllegalArgumentException if the token ID is not 32 Base64url-encoded
+     *                                  bytes
      */
-    public RefreshToken storeRefreshToken(String tokenId, String tokenValue, User user, LocalDateTime expiresAt) {
+    public RefreshToken storeRefreshToken(String tokenId, String tokenValue, User user, Instant expiresAt) {
+        byte[] rawTokenId = decodeTokenId(tokenId);
+        if (rawTokenId == null) {
+            throw new IllegalArgumentException("Token ID must be 32 Base64url-encoded bytes");
+        }
         cleanupTokensForUser(user);
 
         RefreshToken refreshToken = new RefreshToken();
-        refreshToken.setTokenId(tokenId);
-        refreshToken.setHashedToken(hashToken(tokenValue));
+        refreshToken.setTokenId(rawTokenId);
+        refreshToken.setHashedToken(tokenDigester.digest(tokenValue));
         refreshToken.setUser(user);
         refreshToken.setExpiresAt(expiresAt);
-        refreshToken.setCreatedAt(LocalDateTime.now());
+        refreshToken.setCreatedAt(Instant.now());
 
         RefreshToken savedToken = refreshTokenRepository.save(refreshToken);
         logger.debug("Stored refresh token for user: {}", user.getEmail());
@@ -94,36 +133,131 @@ public class RefreshTokenService {
     }
 
     /**
-     * Validates a refresh token by checking its existence, expiration, and
-     * revocation status.
+     * Rotates a refresh token family in place: if the presented token is the
+     * current generation, the family row takes the successor's hash and
+     * expiration and advances its generation in a single compare-and-set
+     * update. If an older generation is presented, the token was already
+     * rotated and is being replayed, so the whole family is revoked.
      *
-     * @param tokenId    the token ID to validate
-     * @param tokenValue the token value to verify against the stored hash
-     * @return the valid RefreshToken if found and valid, empty otherwise
+     * @param tokenId       the family ID of the presented token
+     * @param generation    the generation of the presented token
+     * @param tokenValue    the presented token value
+     * @param newTokenValue the successor token value, of the next generation
+     * @param user          the user the family belongs to
+     * @param newExpiresAt  when the successor expires
+     * @return true if the family was rotated, false if it is unknown, expired or
+     *         revoked, or the presented token is not its current generation
+     * @throws IllegalStateException if the family belongs to another user,
+     *                               which rolls the rotation back
      */
-    @Transactional(readOnly = true)
-    public Optional<RefreshToken> validateRefreshToken(String tokenId, String tokenValue) {
-        Optional<RefreshToken> tokenOpt = refreshTokenRepository.findByTokenId(tokenId);
+    public boolean rotateRefreshToken(String tokenId, int generation, String tokenValue, String newTokenValue,
+            User user, Instant newExpiresAt) {
+        byte[] rawTokenId = decodeTokenId(tokenId);
+        if (rawTokenId == null) {
+            logger.warn("Refresh token ID is malformed: {}", tokenId);
+            return false;
+        }
 
-        if (tokenOpt.isEmpty()) {
-            logger.warn("Refresh token not found: {}", tokenId);
-            return Optional.empty();
+        Instant now = Instant.now();
+        Optional<Integer> ownerId = refreshTokenRepository.rotateFamily(rawTokenId, generation,
+                tokenDigester.candidates(tokenValue), tokenDigester.digest(newTokenValue), newExpiresAt, now);
+
+        if (ownerId.isEmpty()) {
+            if (refreshTokenRepository.revokeFamilyOnReuse(rawTokenId, generation, now) > 0) {
+                evict(List.of(rawTokenId));
+                logger.warn("Refresh token reuse detected, revoked session {} of user: {}", tokenId,
+                        user.getEmail());
+            } else {
+                logger.warn("Refresh token is unknown, invalid or already revoked: {}", tokenId);
+            }
+            return false;
         }
+        if (ownerId.get() != user.getId()) {
+            throw new IllegalStateException("Refresh token " + tokenId + " does not belong to the user");
+        }
+        evict(List.of(rawTokenId));
+
+        logger.debug("Rotated refresh token to generation {} for user: {}", generation + 1, user.getEmail());
+        return true;
+    }
 
-        RefreshToken refreshToken = tokenOpt.get();
+    /**
+     * Checks whether a refresh token family is stored and neither expired nor
+     * revoked, without checking which generation is current. Recently seen
+     * families are served from the cache, and no transaction is started for
+     * them.
+     *
+     * <p>
+     * A refresh calls this before rotating, so tokens of revoked, expired or
+     * unknown families are rejected without a user lookup or a write. Only a
+     * negative answer is final, as expiry and revocation are permanent; a
+     * family that is still cached as active after a revocation on another node
+     * is rejected by the rotation itself.
+     * </p>
+     *
+     * @param tokenId the family ID carried in the token
+     * @return true if the family may still be rotated
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public boolean isActiveFamily(String tokenId) {
+        byte[] rawTokenId = decodeTokenId(tokenId);
+        Optional<RefreshTokenState> family = rawTokenId == null
+                ? Optional.empty()
+                : refreshTokenCache.get(rawTokenId, refreshTokenRepository::findStateByTokenId);
 
-        if (!refreshToken.isValid()) {
+        if (family.isEmpty()) {
+            logger.warn("Refresh token not found: {}", tokenId);
+            return false;
+        }
+        if (!family.get().isValid()) {
             logger.warn("Refresh token is invalid (expired or revoked): {}", tokenId);
-            return Optional.empty();
+            return false;
         }
+        return true;
+    }
 
-        String expectedHash = hashToken(tokenValue);
-        if (!expectedHash.equals(refreshToken.getHashedToken())) {
-            logger.warn("Refresh token hash mismatch: {}", tokenId);
-            return Optional.empty();
+    /**
+     * Validates many refresh tokens with at most one database query. Family
+     * states are read through the cache, and only the missing ones are queried.
+     * Tokens of the same family share one stored row, which only the current
+     * generation matches.
+     *
+     * @param tokenIdsByToken the token values to verify, mapped to their token
+     *                        IDs
+     * @return the token values that exist, are neither expired nor revoked,
+     *         and match their stored hash
+     */
+    @Transactional(readOnly = true)
+    public Set<String> findValidTokens(Map<String, String> tokenIdsByToken) {
+        if (tokenIdsByToken.isEmpty()) {
+            return Set.of();
         }
 
-        return Optional.of(refreshToken);
+        Map<String, ByteBuffer> rawTokenIdsByToken = new HashMap<>();
+        Map<ByteBuffer, byte[]> rawTokenIds = new HashMap<>();
+        tokenIdsByToken.forEach((token, tokenId) -> {
+            byte[] rawTokenId = decodeTokenId(tokenId);
+            if (rawTokenId != null) {
+                rawTokenIdsByToken.put(token, ByteBuffer.wrap(rawTokenId));
+                rawTokenIds.putIfAbsent(ByteBuffer.wrap(rawTokenId), rawTokenId);
+            }
+        });
+        if (rawTokenIds.isEmpty()) {
+            return Set.of();
+        }
+
+        Map<ByteBuffer, RefreshTokenState> statesByRawId = refreshTokenCache.getAll(rawTokenIds.values(),
+                refreshTokenRepository::findStatesByTokenIdIn);
+
+        Set<String> validTokens = new HashSet<>();
+        rawTokenIdsByToken.forEach((token, rawTokenId) -> {
+            RefreshTokenState refreshToken = statesByRawId.get(rawTokenId);
+            if (refreshToken != null && refreshToken.isValid()
+                    && tokenDigester.matches(token, refreshToken.hashedToken())) {
+                validTokens.add(token);
+            }
+        });
+        return validTokens;
     }
 
     /**
@@ -132,61 +266,76 @@ public class RefreshTokenService {
      * @param tokenId the ID of the token to revoke
      */
     public void revokeRefreshToken(String tokenId) {
-        Optional<RefreshToken> tokenOpt = refreshTokenRepository.findByTokenId(tokenId);
-        if (tokenOpt.isPresent()) {
-            RefreshToken token = tokenOpt.get();
-            token.revoke();
-            refreshTokenRepository.save(token);
+        byte[] rawTokenId = decodeTokenId(tokenId);
+        if (rawTokenId == null) {
+            return;
+        }
+        if (refreshTokenRepository.revokeByTokenId(rawTokenId, Instant.now()) > 0) {
+            evict(List.of(rawTokenId));
             logger.debug("Revoked refresh token: {}", tokenId);
         }
     }
 
     /**
-     * Revokes all refresh tokens for a user. Useful for logout or security
-     * incidents.
+     * Revokes all refresh tokens for a user in a single update, without loading
+     * the user. Useful for logout or security incidents.
      *
-     * @param user the user whose tokens should be revoked
+     * @param userId the ID of the user whose tokens should be revoked
      */
-    public void revokeAllTokensForUser(User user) {
-        int revokedCount = refreshTokenRepository.revokeAllTokensForUser(user, LocalDateTime.now());
-        logger.info("Revoked {} refresh tokens for user: {}", revokedCount, user.getEmail());
+    public void revokeAllTokensForUser(int userId) {
+        List<byte[]> revoked = refreshTokenRepository.revokeAllTokensForUser(userId, Instant.now());
+        evict(revoked);
+        logger.info("Revoked {} refresh tokens for user ID: {}", revoked.size(), userId);
     }
 
     /**
-     * Cleans up tokens for a user to enforce maximum active tokens limit.
-     * Removes oldest tokens if the user has too many active tokens.
+     * Enforces the maximum number of active tokens before a new one is stored,
+     * by revoking all but the newest {@code maxActiveTokensPerUser - 1} active
+     * tokens of the user in a single update.
      *
      * @param user the user whose tokens to clean up
      */
     private void cleanupTokensForUser(User user) {
-        List<RefreshToken> activeTokens = refreshTokenRepository.findActiveTokensByUser(user, LocalDateTime.now());
+        List<byte[]> revoked = refreshTokenRepository.revokeAllButNewest(user.getId(), maxActiveTokensPerUser - 1,
+                Instant.now());
 
-        if (activeTokens.size() >= MAX_ACTIVE_TOKENS_PER_USER) {
-            List<RefreshToken> allTokens = refreshTokenRepository.findByUserOrderByCreatedAtDesc(user);
+        if (!revoked.isEmpty()) {
+            evict(revoked);
+            logger.debug("Revoked {} old refresh tokens for user: {}", revoked.size(), user.getEmail());
+        }
+    }
 
-            for (int i = MAX_ACTIVE_TOKENS_PER_USER - 1; i < allTokens.size(); i++) {
-                RefreshToken token = allTokens.get(i);
-                if (!token.isRevoked()) {
-                    token.revoke();
-                    refreshTokenRepository.save(token);
+    /**
+     * Evicts changed tokens from the cache now, and again after the current
+     * transaction completes, when the change is visible to other lookups.
+     *
+     * @param tokenIds the raw IDs of the changed tokens
+     */
+    private void evict(Collection<byte[]> tokenIds) {
+        refreshTokenCache.invalidateAll(tokenIds);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    refreshTokenCache.invalidateAll(tokenIds);
                 }
-            }
-
-            logger.debug("Cleaned up old refresh tokens for user: {}", user.getEmail());
+            });
         }
     }
 
     /**
-     * Removes expired refresh tokens from the database.
-     * This method should be called periodically to clean up the database.
+     * Decodes a Base64url token ID to the raw bytes it is stored as.
      *
-     * @return the number of expired tokens that were deleted
+     * @param tokenId the token ID as carried in the token
+     * @return the 32 raw bytes, or null if the ID is not 32 Base64url-encoded
+     *         bytes
      */
-    public int cleanupExpiredTokens() {
-        int deletedCount = refreshTokenRepository.deleteExpiredTokens(LocalDateTime.now());
-        if (deletedCount > 0) {
-            logger.info("Deleted {} expired refresh tokens", deletedCount);
+    private static byte[] decodeTokenId(String tokenId) {
+        try {
+            byte[] rawTokenId = TOKEN_ID_DECODER.decode(tokenId);
+            return rawTokenId.length == TOKEN_ID_BYTES ? rawTokenId : null;
+        } catch (IllegalArgumentException e) {
+            return null;
         }
-        return deletedCount;
     }
 }
@@ -0,0 +1,37 @@
+package com.ernestas.auth.service;
+
+import org.springframework.lang.Nullable;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Introspection result for a single token.
+ *
+ * <p>
+ * Inactive tokens carry no further claims, so callers cannot tell an invalid
+ * signature from a revoked or expired token.
+ * </p>
+ *
+ * @param active whether the token is valid and, for refresh tokens, not revoked
+ * @param type   the token type ("access" or "refresh")
+ * @param sub    the subject: the user email, or the user ID for compact tokens
+ * @param exp    the expiry in seconds since the epoch
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record TokenIntrospection(
+        boolean active,
+        @Nullable String type,
+        @Nullable String sub,
+        @Nullable Long exp) {
+
+    private static final TokenIntrospection INACTIVE = new TokenIntrospection(false, null, null, null);
+
+    /**
+     * Returns the result for a token that is not active.
+     *
+     * @return the inactive result
+     */
+    public static TokenIntrospection inactive() {
+        return INACTIVE;
+    }
+}
@@ -0,0 +1,78 @@
+package com.ernestas.auth.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.springframework.stereotype.Service;
+
+import com.ernestas.auth.util.JwtTokenUtil;
+import com.ernestas.auth.util.VerifiedToken;
+
+/**
+ * Service for introspecting many tokens at once on behalf of other services.
+ */
+@Service
+public class TokenIntrospectionService {
+    private final JwtTokenUtil jwtTokenUtil;
+    private final RefreshTokenService refreshTokenService;
+
+    /**
+     * Constructs a TokenIntrospectionService.
+     *
+     * @param jwtTokenUtil        the utility for verifying token signatures
+     * @param refreshTokenService the service for checking refresh token
+     *                            persistence
+     */
+    public TokenIntrospectionService(JwtTokenUtil jwtTokenUtil, RefreshTokenService refreshTokenService) {
+        this.jwtTokenUtil = jwtTokenUtil;
+        this.refreshTokenService = refreshTokenService;
+    }
+
+    /**
+     * Introspects a batch of tokens.
+     *
+     * <p>
+     * Every token gets a signature check. Refresh tokens that pass it are
+     * de-duplicated and checked against the database with a single query, no
+     * matter how many the batch contains. Several generations of one family
+     * may be in a batch; only the current one is active.
+     * </p>
+     *
+     * @param tokens the raw tokens, of any type
+     * @return one result per token, in request order
+     */
+    public List<TokenIntrospection> introspect(List<String> tokens) {
+        List<Optional<VerifiedToken>> verifiedTokens = new ArrayList<>(tokens.size());
+        Map<String, String> refreshTokenIds = new HashMap<>();
+
+        for (String token : tokens) {
+            Optional<VerifiedToken> verified = token == null ? Optional.empty()
+                    : jwtTokenUtil.verifySignature(token);
+            verifiedTokens.add(verified);
+
+            verified.filter(v -> "refresh".equals(v.type()) && v.tokenId() != null)
+                    .ifPresent(v -> refreshTokenIds.put(token, v.tokenId()));
+        }
+
+        Set<String> validRefreshTokens = refreshTokenService.findValidTokens(refreshTokenIds);
+
+        List<TokenIntrospection> results = new ArrayList<>(tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            results.add(verifiedTokens.get(i)
+                    .filter(v -> !"refresh".equals(v.type()) || validRefreshTokens.contains(token))
+                    .map(TokenIntrospectionService::active)
+                    .orElse(TokenIntrospection.inactive()));
+        }
+        return results;
+    }
+
+    private static TokenIntrospection active(VerifiedToken token) {
+        String subject = token.email() != null ? token.email() : String.valueOf(token.userId());
+        return new TokenIntrospection(true, token.type(), subject, token.expiresAt().getEpochSecond());
+    }
+}
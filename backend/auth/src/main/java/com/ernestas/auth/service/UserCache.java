@@ -0,0 +1,129 @@
+package com.ernestas.auth.service;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.ernestas.auth.model.User;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Bounded read-through cache of users, keyed both by email and by ID.
+ *
+ * <p>
+ * User rows change only when a user signs in again, through
+ * {@link UserService#registerOrUpdateUser}, which writes the saved user
+ * through to both keys. Unknown users are not cached. Entries expire after the
+ * configured time to live, which bounds how long a change made on another node
+ * goes unseen. A user loaded under one key is also cached under the other,
+ * unless a newer entry is already there.
+ * </p>
+ *
+ * <p>
+ * The cache holds its own copies: callers get a fresh copy on every lookup, so
+ * a caller modifying its user never changes what others see. Hit, miss and
+ * eviction counters are published to the meter registry under the
+ * {@code users} cache name, tagged with the {@code key} they are looked up by.
+ * </p>
+ */
+@Component
+public class UserCache {
+    private final Cache<String, User> byEmail;
+    private final Cache<Integer, User> byId;
+
+    /**
+     * Creates the cache and registers its metrics.
+     *
+     * @param maximumSize      the maximum number of cached users per key
+     * @param timeToLiveMillis how long a user is cached at most, in
+     *                         milliseconds
+     * @param meterRegistry    the registry to publish cache metrics to
+     */
+    public UserCache(
+            @Value("${users.cache.max-size:10000}") long maximumSize,
+            @Value("${users.cache.ttl:300000}") long timeToLiveMillis,
+            MeterRegistry meterRegistry) {
+        this.byEmail = newCache(maximumSize, timeToLiveMillis);
+        this.byId = newCache(maximumSize, timeToLiveMillis);
+        CaffeineCacheMetrics.monitor(meterRegistry, byEmail, "users", "key", "email");
+        CaffeineCacheMetrics.monitor(meterRegistry, byId, "users", "key", "id");
+    }
+
+    /**
+     * Returns the cached user with an email, loading and caching it on a miss.
+     *
+     * @param email  the email of the user
+     * @param loader loads the user from the database
+     * @return a copy of the cached or loaded user, or empty if it does not exist
+     */
+    public Optional<User> getByEmail(String email, Function<String, Optional<User>> loader) {
+        User user = byEmail.get(email, key -> loader.apply(key).map(loaded -> {
+            User copy = copy(loaded);
+            byId.asMap().putIfAbsent(copy.getId(), copy);
+            return copy;
+        }).orElse(null));
+        return Optional.ofNullable(user).map(UserCache::copy);
+    }
+
+    /**
+     * Returns the cached user with an ID, loading and caching it on a miss.
+     *
+     * @param id     the ID of the user
+     * @param loader loads the user from the database
+     * @return a copy of the cached or loaded user, or empty if it does not exist
+     */
+    public Optional<User> getById(int id, IntFunction<Optional<User>> loader) {
+        User user = byId.get(id, key -> loader.apply(key).map(loaded -> {
+            User copy = copy(loaded);
+            byEmail.asMap().putIfAbsent(copy.getEmail(), copy);
+            return copy;
+        }).orElse(null));
+        return Optional.ofNullable(user).map(UserCache::copy);
+    }
+
+    /**
+     * Caches a copy of a saved user under both keys, replacing any previous
+     * entry.
+     *
+     * @param user the saved user
+     */
+    public void put(User user) {
+        User copy = copy(user);
+        byEmail.put(copy.getEmail(), copy);
+        byId.put(copy.getId(), copy);
+    }
+
+    /**
+     * Removes a user from the cache under both keys.
+     *
+     * @param user the user to remove
+     */
+    public void invalidate(User user) {
+        byEmail.invalidate(user.getEmail());
+        byId.invalidate(user.getId());
+    }
+
+    private static <K> Cache<K, User> newCache(long maximumSize, long timeToLiveMillis) {
+        return Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofMillis(timeToLiveMillis))
+                .recordStats()
+                .build();
+    }
+
+    private static User copy(User user) {
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setEmail(user.getEmail());
+        copy.setName(user.getName());
+        return copy;
+    }
+}
@@ -1,74 +1,132 @@
 package com.ernestas.auth.service;
 
+import org.springframework.lang.Nullable;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.ernestas.auth.model.User;
 import com.ernestas.auth.repository.UserRepository;
+import com.ernestas.auth.security.AccessTokenDenylist;
 
 /**
  * Service class for managing user registration and updates.
+ *
+ * <p>
+ * Lookups by email and by ID are served from a {@link UserCache}. A registered
+ * or updated user is evicted right away and cached once the transaction has
+ * committed, so a rolled back change is never cached.
+ * </p>
  */
 @Service
 @Transactional
 public class UserService {
 
     private final UserRepository userRepository;
+    private final UserCache userCache;
     private final RefreshTokenService refreshTokenService;
+    private final AccessTokenDenylist accessTokenDenylist;
 
     /**
      * Constructor for UserService.
      *
      * @param userRepository      the UserRepository instance for database
      *                            operations
+     * @param userCache           the cache of users by email and ID
      * @param refreshTokenService the RefreshTokenService for managing refresh
      *                            tokens
+     * @param accessTokenDenylist the denylist for revoking access tokens
      */
-    public UserService(UserRepository userRepository, RefreshTokenService refreshTokenService) {
+    public UserService(UserRepository userRepository, UserCache userCache, RefreshTokenService refreshTokenService,
+            AccessTokenDenylist accessTokenDenylist) {
         this.userRepository = userRepository;
+        this.userCache = userCache;
         this.refreshTokenService = refreshTokenService;
+        this.accessTokenDenylist = accessTokenDenylist;
     }
 
     /**
      * Registers a new user or updates an existing user
-     * based on the provided OAuth2User information.
+     * based on the provided OAuth2User information, in a single statement that
+     * writes nothing if the user's name has not changed.
      *
      * @param oauth2User the OAuth2User object containing user information
      * @return the registered or updated User entity
+     * @throws IllegalArgumentException if the OAuth2 user has no email
+     * @throws IllegalStateException    if the user could not be registered
      */
     public User registerOrUpdateUser(OAuth2User oauth2User) {
         String email = oauth2User.getAttribute("email");
-        User user = userRepository
-                .findByEmail(email)
-                .orElse(new User());
-        user.setEmail(email);
-        user.setName(oauth2User.getAttribute("name"));
+        String name = oauth2User.getAttribute("name");
+        if (email == null) {
+            throw new IllegalArgumentException("OAuth2 user has no email");
+        }
+        int id = userRepository.upsertByEmail(email, name)
+                // Registered concurrently after the statement started, visible to a new one
+                .or(() -> userRepository.upsertByEmail(email, name))
+                .orElseThrow(() -> new IllegalStateException("User could not be registered"));
 
-        return userRepository.save(user);
+        User user = new User();
+        user.setId(id);
+        user.setEmail(email);
+        user.setName(name);
+        cacheAfterCommit(user);
+        return user;
     }
 
     /**
-     * Finds a user by their email address.
+     * Finds a user by their email address. Recently seen users are served from
+     * the cache, and no transaction is started for them.
      *
      * @param email the email address of the user
      * @return the User entity if found
      * @throws RuntimeException if the user is not found
      */
-    @Transactional(readOnly = true)
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public User findUserByEmail(String email) {
-        return userRepository.findByEmail(email)
+        return userCache.getByEmail(email, userRepository::findByEmail)
+                .orElseThrow(() -> new RuntimeException("User not found"));
+    }
+
+    /**
+     * Finds a user by their ID. Recently seen users are served from the cache,
+     * and no transaction is started for them.
+     *
+     * @param id the ID of the user
+     * @return the User entity if found
+     * @throws RuntimeException if the user is not found
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public User findUserById(int id) {
+        return userCache.getById(id, userRepository::findById)
                 .orElseThrow(() -> new RuntimeException("User not found"));
     }
 
     /**
-     * Revokes all refresh tokens for a user. This is useful for security purposes
-     * such as when a user changes their password or reports a security incident.
+     * Revokes all refresh tokens and outstanding access tokens for a user. This is
+     * useful for security purposes such as when a user changes their password or
+     * reports a security incident.
      *
      * @param user the user whose tokens should be revoked
      */
     public void revokeAllUserTokens(User user) {
-        refreshTokenService.revokeAllTokensForUser(user);
+        revokeAllUserTokens(user.getId(), user.getEmail());
+    }
+
+    /**
+     * Revokes all refresh tokens and outstanding access tokens for a user by
+     * ID, without loading the user.
+     *
+     * @param userId the ID of the user whose tokens should be revoked
+     * @param email  the user's email if known, to also revoke access tokens
+     *               that identify the user by email only
+     */
+    public void revokeAllUserTokens(int userId, @Nullable String email) {
+        refreshTokenService.revokeAllTokensForUser(userId);
+        accessTokenDenylist.revoke(userId, email);
     }
 
     /**
@@ -80,4 +138,24 @@ public class UserService {
         User user = findUserByEmail(email);
         revokeAllUserTokens(user);
     }
+
+    /**
+     * Evicts a saved user from the cache now, and caches it once the current
+     * transaction has committed, when the change is visible to other lookups.
+     *
+     * @param user the saved user
+     */
+    private void cacheAfterCommit(User user) {
+        userCache.invalidate(user);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    userCache.put(user);
+                }
+            });
+        } else {
+            userCache.put(user);
+        }
+    }
 }
@@ -1,22 +1,26 @@
 package com.ernestas.auth.util;
 
-import java.nio.charset.StandardCharsets;
-import java.security.Key;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
+import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.util.Date;
-
-import javax.crypto.SecretKey;
+import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import com.ernestas.auth.model.User;
+import com.ernestas.auth.security.AccessTokenCache;
+import com.ernestas.auth.security.AccessTokenDenylist;
+import com.ernestas.auth.security.JwtKeyProvider;
+import com.ernestas.auth.security.JwtSigningKey;
 import com.ernestas.auth.service.RefreshTokenService;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
 import lombok.Getter;
 
@@ -25,7 +29,7 @@ import lombok.Getter;
  */
 @Component
 public class JwtTokenUtil {
-    private final String secret;
+    private final JwtKeyProvider keyProvider;
 
     @Getter
     private final long accessTokenExpiration;
@@ -33,38 +37,71 @@ public class JwtTokenUtil {
     @Getter
     private final long refreshTokenExpiration;
 
-    private Key signingKey;
+    @Getter
+    private final TokenProfile profile;
+
+    private JwtParser parser;
+    private HmacTokenMinter hmacMinter;
     private final RefreshTokenService refreshTokenService;
+    private final AccessTokenCache accessTokenCache;
+    private final AccessTokenDenylist accessTokenDenylist;
+    private final DistributionSummary accessTokenSize;
+    private final DistributionSummary refreshTokenSize;
 
     /**
-     * Constructs a JwtTokenUtil with the specified secret and token expiration
-     * durations.
+     * Constructs a JwtTokenUtil with the specified key provider and token
+     * expiration durations.
      *
-     * @param secret                 the secret key used for signing JWT tokens
+     * @param keyProvider            the provider of signing and verification keys
      * @param accessTokenExpiration  the expiration duration (in milliseconds) for
      *                               access tokens
      * @param refreshTokenExpiration the expiration duration (in milliseconds) for
      *                               refresh tokens
+     * @param profile                the claim layout of issued tokens
      * @param refreshTokenService    the service for managing refresh token
      *                               persistence
+     * @param accessTokenCache       the cache of already verified access tokens
+     * @param accessTokenDenylist    the denylist of revoked access tokens
+     * @param meterRegistry          the registry to publish issued token sizes to
      */
     public JwtTokenUtil(
-            @Value("${jwt.secret}") String secret,
+            JwtKeyProvider keyProvider,
             @Value("${jwt.access.expiration}") long accessTokenExpiration,
             @Value("${jwt.refresh.expiration}") long refreshTokenExpiration,
-            RefreshTokenService refreshTokenService) {
-        this.secret = secret;
+            @Value("${jwt.claims.profile:STANDARD}") TokenProfile profile,
+            RefreshTokenService refreshTokenService,
+            AccessTokenCache accessTokenCache,
+            AccessTokenDenylist accessTokenDenylist,
+            MeterRegistry meterRegistry) {
+        this.keyProvider = keyProvider;
         this.accessTokenExpiration = accessTokenExpiration;
         this.refreshTokenExpiration = refreshTokenExpiration;
+        this.profile = profile;
         this.refreshTokenService = refreshTokenService;
+        this.accessTokenCache = accessTokenCache;
+        this.accessTokenDenylist = accessTokenDenylist;
+        this.accessTokenSize = tokenSizeSummary("access", meterRegistry);
+        this.refreshTokenSize = tokenSizeSummary("refresh", meterRegistry);
     }
 
     /**
-     * Initializes the signing key using the secret key from application properties.
+     * Builds the parser that is reused for every verification. The parser
+     * selects the verification key by the {@code kid} header of each token, is
+     * immutable and safe to share between request threads.
+     *
+     * <p>
+     * With the shared-secret HMAC key, tokens are minted by a
+     * {@link HmacTokenMinter} instead of the jjwt builder.
+     * </p>
      */
     @PostConstruct
     public void init() {
-        this.signingKey = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        this.parser = Jwts.parser()
+                .keyLocator(keyProvider.keyLocator())
+                .build();
+
+        JwtSigningKey signingKey = keyProvider.getSigningKey();
+        this.hmacMinter = signingKey.algorithm() == null ? new HmacTokenMinter(signingKey.signingKey()) : null;
     }
 
     /**
@@ -74,120 +111,193 @@ public class JwtTokenUtil {
      * @return A signed JWT access token string.
      */
     public String generateAccessToken(User user) {
-        return Jwts.builder()
-                .subject(user.getEmail())
-                .claim("type", "access")
-                .claim("name", user.getName())
-                .issuedAt(new Date())
-                .expiration(new Date(System.currentTimeMillis() + accessTokenExpiration))
-                .signWith(signingKey)
-                .compact();
+        long now = System.currentTimeMillis();
+        long expiration = now + accessTokenExpiration;
+        JwtSigningKey signingKey = keyProvider.getSigningKey();
+
+        String token;
+        if (hmacMinter != null && signingKey.algorithm() == null) {
+            HmacTokenMinter.Writer writer = hmacMinter.begin();
+            if (profile == TokenProfile.COMPACT) {
+                writer.claim("sub", String.valueOf(user.getId())).claim("t", "a");
+            } else {
+                writer.claim("sub", user.getEmail()).claim("uid", user.getId()).claim("type", "access")
+                        .claim("name", user.getName());
+            }
+            token = writer.claim("iat", now / 1000).claim("exp", expiration / 1000).sign();
+        } else {
+            JwtBuilder builder = profile == TokenProfile.COMPACT
+                    ? Jwts.builder()
+                            .subject(String.valueOf(user.getId()))
+                            .claim("t", "a")
+                    : Jwts.builder()
+                            .subject(user.getEmail())
+                            .claim("uid", user.getId())
+                            .claim("type", "access")
+                            .claim("name", user.getName());
+
+            token = signingKey.signWith(builder
+                    .issuedAt(new Date(now))
+                    .expiration(new Date(expiration)))
+                    .compact();
+        }
+
+        accessTokenSize.record(token.length());
+        return token;
     }
 
     /**
      * Generates a signed JWT refresh token for the given user with token rotation
-     * support.
+     * support. The token starts a new refresh token family, that is a new
+     * session, at generation 0.
      *
      * @param user The user for whom to generate the token.
      * @return A signed JWT refresh token string.
      */
     public String generateRefreshToken(User user) {
         String tokenId = refreshTokenService.generateTokenId();
-        Date expirationDate = new Date(System.currentTimeMillis() + refreshTokenExpiration);
-
-        String token = Jwts.builder()
-                .subject(user.getEmail())
-                .claim("type", "refresh")
-                .claim("tokenId", tokenId)
-                .issuedAt(new Date())
-                .expiration(expirationDate)
-                .signWith(signingKey)
-                .compact();
+        long now = System.currentTimeMillis();
+        long expiration = now + refreshTokenExpiration;
+        String token = mintRefreshToken(user, tokenId, 0, now, expiration);
 
-        LocalDateTime expiresAt = expirationDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime();
-        refreshTokenService.storeRefreshToken(tokenId, token, user, expiresAt);
+        refreshTokenService.storeRefreshToken(tokenId, token, user, Instant.ofEpochMilli(expiration));
 
         return token;
     }
 
     /**
-     * Validates the given token against the expected type and checks database
-     * persistence for refresh tokens.
+     * Rotates a presented refresh token: mints the next generation of its
+     * family and advances the stored family to it in a single update. Of two
+     * concurrent rotations of the same token, at most one succeeds, and
+     * presenting an already rotated token revokes the whole family.
      *
-     * @param token        The JWT to validate.
-     * @param expectedType The expected token type: "access" or "refresh".
-     * @return True if the token is valid and matches the user and type.
+     * @param presented      The verified claims of the presented token.
+     * @param presentedToken The presented JWT refresh token.
+     * @param user           The user the token belongs to.
+     * @return The successor refresh token, or empty if the presented token is
+     *         unknown, expired, revoked or was already rotated.
      */
-    public boolean validateToken(String token, String expectedType) {
-        try {
-            Claims claims = parseClaims(token);
-            String tokenType = (String) claims.get("type");
+    public Optional<String> rotateRefreshToken(VerifiedToken presented, String presentedToken, User user) {
+        // Tokens issued before families were introduced carry no generation
+        int generation = presented.generation() != null ? presented.generation() : 0;
+        long now = System.currentTimeMillis();
+        long expiration = now + refreshTokenExpiration;
+        String token = mintRefreshToken(user, presented.tokenId(), generation + 1, now, expiration);
 
-            if (!tokenType.equals(expectedType)) {
-                return false;
-            }
+        boolean rotated = refreshTokenService.rotateRefreshToken(presented.tokenId(), generation, presentedToken,
+                token, user, Instant.ofEpochMilli(expiration));
+        return rotated ? Optional.of(token) : Optional.empty();
+    }
 
-            if ("refresh".equals(expectedType)) {
-                String tokenId = (String) claims.get("tokenId");
-                if (tokenId == null) {
-                    return false;
-                }
+    private String mintRefreshToken(User user, String tokenId, int generation, long now, long expiration) {
+        JwtSigningKey signingKey = keyProvider.getSigningKey();
 
-                return refreshTokenService.validateRefreshToken(tokenId, token).isPresent();
+        String token;
+        if (hmacMinter != null && signingKey.algorithm() == null) {
+            HmacTokenMinter.Writer writer = hmacMinter.begin();
+            if (profile == TokenProfile.COMPACT) {
+                writer.claim("sub", String.valueOf(user.getId())).claim("t", "r").claim("jti", tokenId)
+                        .claim("g", generation);
+            } else {
+                writer.claim("sub", user.getEmail()).claim("uid", user.getId()).claim("type", "refresh")
+                        .claim("tokenId", tokenId).claim("generation", generation);
             }
+            token = writer.claim("iat", now / 1000).claim("exp", expiration / 1000).sign();
+        } else {
+            JwtBuilder builder = profile == TokenProfile.COMPACT
+                    ? Jwts.builder()
+                            .subject(String.valueOf(user.getId()))
+                            .claim("t", "r")
+                            .id(tokenId)
+                            .claim("g", generation)
+                    : Jwts.builder()
+                            .subject(user.getEmail())
+                            .claim("uid", user.getId())
+                            .claim("type", "refresh")
+                            .claim("tokenId", tokenId)
+                            .claim("generation", generation);
 
-            return true;
-        } catch (Exception e) {
-            return false;
+            token = signingKey.signWith(builder
+                    .issuedAt(new Date(now))
+                    .expiration(new Date(expiration)))
+                    .compact();
         }
+
+        refreshTokenSize.record(token.length());
+        return token;
     }
 
     /**
-     * Parses and returns the claims of a JWT.
+     * Verifies an access token with a single signature check and returns its
+     * claims. Access tokens that were verified before are served from the
+     * {@link AccessTokenCache} without repeating the signature check.
      *
-     * @param token The JWT to parse.
-     * @return The claims contained in the token.
+     * <p>
+     * Refresh tokens have no equivalent: a refresh checks the signature with
+     * {@link #verifySignature} and then calls {@link #rotateRefreshToken},
+     * whose compare-and-set update is the database check.
+     * </p>
+     *
+     * @param token The JWT to verify.
+     * @return The verified token, or empty if the token is invalid, revoked or
+     *         not an access token.
      */
-    public Claims parseClaims(String token) {
-        return Jwts.parser()
-                .verifyWith((SecretKey) this.signingKey)
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
+    public Optional<VerifiedToken> verifyAccessToken(String token) {
+        try {
+            ByteBuffer key = accessTokenCache.key(token);
+            Optional<VerifiedToken> verified = accessTokenCache.get(key);
+            if (verified.isEmpty()) {
+                verified = Optional.of(VerifiedToken.from(parseClaims(token)))
+                        .filter(v -> "access".equals(v.type()));
+                verified.ifPresent(v -> accessTokenCache.put(key, v));
+            }
+
+            return verified.filter(v -> !accessTokenDenylist.isRevoked(v));
+        } catch (Exception e) {
+            return Optional.empty();
+        }
     }
 
     /**
-     * Extracts the "type" claim from the token (either "access" or "refresh").
+     * Checks the signature and expiry of a token of any type, without consulting
+     * the database. Access tokens are rejected if the
+     * {@link AccessTokenDenylist} revoked them. The {@link AccessTokenCache} is
+     * left out, as it only ever holds access tokens: use
+     * {@link #verifyAccessToken} for those.
      *
-     * @param token The JWT.
-     * @return The token type.
+     * @param token The JWT to verify.
+     * @return The verified token, or empty if the signature or expiry check
+     *         fails or the access token was revoked.
      */
-    public String getTokenType(String token) {
-        return (String) parseClaims(token).get("type");
+    public Optional<VerifiedToken> verifySignature(String token) {
+        try {
+            return Optional.of(VerifiedToken.from(parseClaims(token)))
+                    .filter(v -> !"access".equals(v.type()) || !accessTokenDenylist.isRevoked(v));
+        } catch (Exception e) {
+            return Optional.empty();
+        }
     }
 
     /**
-     * Extracts the subject (typically the user email) from the token.
+     * Parses and returns the claims of a JWT.
      *
-     * @param token The JWT.
-     * @return The subject (email).
+     * @param token The JWT to parse.
+     * @return The claims contained in the token.
      */
-    public String getUsernameFromToken(String token) {
-        return parseClaims(token).getSubject();
+    public Claims parseClaims(String token) {
+        return parser.parseSignedClaims(token).getPayload();
     }
 
     /**
-     * Extracts the token ID from a refresh token.
-     *
-     * @param token The JWT refresh token.
-     * @return The token ID if present, null otherwise.
+     * Registers the summary that reports the size in bytes of issued tokens of
+     * one type, tagged with the active claim profile.
      */
-    public String getTokenId(String token) {
-        try {
-            Claims claims = parseClaims(token);
-            return (String) claims.get("tokenId");
-        } catch (Exception e) {
-            return null;
-        }
+    private DistributionSummary tokenSizeSummary(String type, MeterRegistry meterRegistry) {
+        return DistributionSummary.builder("auth.token.size")
+                .description("Size of issued JWTs, which the gateway forwards in the cookie header")
+                .baseUnit("bytes")
+                .tag("type", type)
+                .tag("profile", profile.name().toLowerCase())
+                .register(meterRegistry);
     }
 }
@@ -0,0 +1,19 @@
+package com.ernestas.auth.util;
+
+/**
+ * Claim layout of issued JWTs.
+ *
+ * <p>
+ * {@link #STANDARD} tokens carry the user email as subject, the numeric user
+ * ID as a {@code uid} claim, a {@code type} claim, the display name on access
+ * tokens and a {@code tokenId} claim on refresh tokens. {@link #COMPACT} tokens carry the numeric user ID as subject,
+ * a one-letter {@code t} claim ("a" or "r"), no display name, and the refresh
+ * token ID as the registered {@code jti} claim, which keeps the cookies the
+ * gateway forwards to every subgraph small. Both layouts are always accepted
+ * on verification, so the profile can be switched without logging users out.
+ * </p>
+ */
+public enum TokenProfile {
+    STANDARD,
+    COMPACT
+}
@@ -0,0 +1,73 @@
+package com.ernestas.auth.util;
+
+import java.time.Instant;
+
+import org.springframework.lang.Nullable;
+
+import io.jsonwebtoken.Claims;
+
+/**
+ * Result of a single successful signature and type check of a JWT.
+ *
+ * <p>
+ * Carries every claim the auth operations need, so callers never have to parse
+ * the same token a second time. Tokens of both {@link TokenProfile}s are read
+ * into the same shape: standard tokens identify the user by email and user
+ * ID, compact tokens by user ID only. Standard tokens issued before they
+ * carried the {@code uid} claim have no user ID.
+ * </p>
+ *
+ * @param type       the token type ("access" or "refresh")
+ * @param email      the user email, present on standard tokens
+ * @param userId     the user ID, present on compact tokens and on standard
+ *                   tokens with a {@code uid} claim
+ * @param name       the display name, present on standard access tokens
+ * @param tokenId    the token ID, present on refresh tokens only and shared by
+ *                   every generation of a refresh token family
+ * @param generation the refresh token generation within its family, present on
+ *                   refresh tokens only
+ * @param issuedAt   when the token was issued
+ * @param expiresAt  when the token expires
+ */
+public record VerifiedToken(
+        String type,
+        @Nullable String email,
+        @Nullable Integer userId,
+        @Nullable String name,
+        @Nullable String tokenId,
+        @Nullable Integer generation,
+        Instant issuedAt,
+        Instant expiresAt) {
+
+    /**
+     * Creates a VerifiedToken from claims whose signature has already been
+     * verified.
+     *
+     * @param claims the verified claims of the token
+     * @return the verified token
+     */
+    public static VerifiedToken from(Claims claims) {
+        String compactType = claims.get("t", String.class);
+        if (compactType != null) {
+            return new VerifiedToken(
+                    "a".equals(compactType) ? "access" : "r".equals(compactType) ? "refresh" : compactType,
+                    null,
+                    Integer.valueOf(claims.getSubject()),
+                    null,
+                    claims.getId(),
+                    claims.get("g", Integer.class),
+                    claims.getIssuedAt().toInstant(),
+                    claims.getExpiration().toInstant());
+        }
+
+        return new VerifiedToken(
+                claims.get("type", String.class),
+                claims.getSubject(),
+                claims.get("uid", Integer.class),
+                claims.get("name", String.class),
+                claims.get("tokenId", String.class),
+                claims.get("generation", Integer.class),
+                claims.getIssuedAt().toInstant(),
+                claims.getExpiration().toInstant());
+    }
+}
@@ -0,0 +1,19 @@
+-- Schema as generated by Hibernate before migrations were introduced.
+-- Existing databases are baselined at this version and skip it.
+
+CREATE TABLE users (
+    id integer GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    email varchar(255),
+    name varchar(255)
+);
+
+CREATE TABLE refresh_tokens (
+    id bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    token_id varchar(255) NOT NULL UNIQUE,
+    hashed_token varchar(255) NOT NULL,
+    user_id integer NOT NULL REFERENCES users (id),
+    expires_at timestamp(6) NOT NULL,
+    created_at timestamp(6) NOT NULL,
+    revoked boolean NOT NULL,
+    revoked_at timestamp(6)
+);
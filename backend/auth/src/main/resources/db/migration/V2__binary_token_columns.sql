@@ -0,0 +1,39 @@
+-- Stores token IDs and token hashes as their raw 32 bytes instead of Base64
+-- text, and timestamps as timestamptz instead of local time.
+
+-- The column types of a partitioned table cannot be changed in place, so a
+-- table converted by RefreshTokenPartitionManager is turned back into a plain
+-- one here. The partition manager converts it again at startup.
+DO $$
+BEGIN
+    IF (SELECT relkind FROM pg_class WHERE oid = to_regclass('refresh_tokens')) = 'p' THEN
+        ALTER TABLE refresh_tokens RENAME TO refresh_tokens_partitioned;
+        ALTER SEQUENCE refresh_tokens_id_seq OWNED BY NONE;
+        CREATE TABLE refresh_tokens (LIKE refresh_tokens_partitioned INCLUDING DEFAULTS);
+        INSERT INTO refresh_tokens SELECT * FROM refresh_tokens_partitioned;
+        DROP TABLE refresh_tokens_partitioned;
+        ALTER SEQUENCE refresh_tokens_id_seq OWNED BY refresh_tokens.id;
+        ALTER TABLE refresh_tokens ADD PRIMARY KEY (id);
+        ALTER TABLE refresh_tokens ADD FOREIGN KEY (user_id) REFERENCES users (id);
+        CREATE UNIQUE INDEX idx_refresh_tokens_token_id ON refresh_tokens (token_id);
+        CREATE INDEX idx_refresh_tokens_user_active ON refresh_tokens (user_id, revoked, created_at);
+        CREATE INDEX idx_refresh_tokens_expires_at ON refresh_tokens (expires_at);
+        CREATE INDEX idx_refresh_tokens_revoked_at ON refresh_tokens (revoked_at);
+    END IF;
+END
+$$;
+
+-- Token IDs are unpadded Base64url, token hashes padded standard Base64.
+-- Timestamps were written in the JVM time zone, which the PostgreSQL driver
+-- sets as the session time zone.
+ALTER TABLE refresh_tokens
+    ALTER COLUMN token_id TYPE bytea USING decode(translate(token_id, '-_', '+/') || '=', 'base64'),
+    ALTER COLUMN hashed_token TYPE bytea USING decode(hashed_token, 'base64'),
+    ALTER COLUMN expires_at TYPE timestamptz USING expires_at AT TIME ZONE current_setting('TimeZone'),
+    ALTER COLUMN created_at TYPE timestamptz USING created_at AT TIME ZONE current_setting('TimeZone'),
+    ALTER COLUMN revoked_at TYPE timestamptz USING revoked_at AT TIME ZONE current_setting('TimeZone');
+
+-- PostgreSQL has no fixed-length bytea, so the width is enforced by checks
+ALTER TABLE refresh_tokens
+    ADD CONSTRAINT refresh_tokens_token_id_length CHECK (octet_length(token_id) = 32),
+    ADD CONSTRAINT refresh_tokens_hashed_token_length CHECK (octet_length(hashed_token) = 32);
@@ -0,0 +1,15 @@
+-- Replaces identity columns with sequences that hand out IDs in blocks of 50,
+-- the allocation size of the entities, so Hibernate can batch inserts.
+-- Hibernate's pooled optimizer uses the IDs up to each returned value, so the
+-- first value is set 50 above the current maximum.
+
+CREATE SEQUENCE users_seq INCREMENT BY 50;
+SELECT setval('users_seq', (SELECT coalesce(max(id), 0) + 50 FROM users), false);
+ALTER TABLE users ALTER COLUMN id DROP IDENTITY IF EXISTS;
+
+CREATE SEQUENCE refresh_tokens_seq INCREMENT BY 50;
+SELECT setval('refresh_tokens_seq', (SELECT coalesce(max(id), 0) + 50 FROM refresh_tokens), false);
+ALTER TABLE refresh_tokens ALTER COLUMN id DROP IDENTITY IF EXISTS;
+-- A partitioned table has a plain default on its own sequence instead
+ALTER TABLE refresh_tokens ALTER COLUMN id DROP DEFAULT;
+DROP SEQUENCE IF EXISTS refresh_tokens_id_seq;
@@ -0,0 +1,12 @@
+-- Makes emails unique, which the single-statement user upsert resolves
+-- concurrent sign-ins against. Users were looked up by email before being
+-- saved, so duplicates can only come from racing first sign-ins; the oldest
+-- row is kept and the sessions of the others are moved to it.
+
+UPDATE refresh_tokens t SET user_id = d.keep_id
+FROM (SELECT id, min(id) OVER (PARTITION BY email) AS keep_id FROM users) d
+WHERE t.user_id = d.id AND d.id <> d.keep_id;
+
+DELETE FROM users u USING users k WHERE u.email = k.email AND u.id > k.id;
+
+ALTER TABLE users ADD CONSTRAINT users_email_key UNIQUE (email);
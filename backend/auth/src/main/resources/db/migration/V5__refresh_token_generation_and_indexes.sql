@@ -0,0 +1,10 @@
+-- Adds the rotation generation of refresh token families and the indexes of
+-- the session, purge and retention queries. Databases baselined at V1 have
+-- neither, while ones created from an earlier revision of V1 already have
+-- both, so every statement is idempotent.
+
+ALTER TABLE refresh_tokens ADD COLUMN IF NOT EXISTS generation integer DEFAULT 0 NOT NULL;
+
+CREATE INDEX IF NOT EXISTS idx_refresh_tokens_user_active ON refresh_tokens (user_id, revoked, created_at);
+CREATE INDEX IF NOT EXISTS idx_refresh_tokens_expires_at ON refresh_tokens (expires_at);
+CREATE INDEX IF NOT EXISTS idx_refresh_tokens_revoked_at ON refresh_tokens (revoked_at);
@@ -0,0 +1,36 @@
+package com.ernestas.auth.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.junit.jupiter.api.Test;
+
+class JpaConfigTest {
+
+    @Test
+    void jdbcBatching_enablesBatchedOrderedStatements() {
+        Map<String, Object> properties = new HashMap<>();
+
+        new JpaConfig().jdbcBatching().customize(properties);
+
+        assertEquals(JpaConfig.JDBC_BATCH_SIZE, properties.get(AvailableSettings.STATEMENT_BATCH_SIZE));
+        assertEquals(true, properties.get(AvailableSettings.ORDER_INSERTS));
+        assertEquals(true, properties.get(AvailableSettings.ORDER_UPDATES));
+        assertEquals(Set.of(AvailableSettings.STATEMENT_BATCH_SIZE, AvailableSettings.ORDER_INSERTS,
+                AvailableSettings.ORDER_UPDATES), properties.keySet());
+    }
+
+    @Test
+    void jdbcBatching_keepsConfiguredValues() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(AvailableSettings.STATEMENT_BATCH_SIZE, "10");
+
+        new JpaConfig().jdbcBatching().customize(properties);
+
+        assertEquals("10", properties.get(AvailableSettings.STATEMENT_BATCH_SIZE));
+    }
+}
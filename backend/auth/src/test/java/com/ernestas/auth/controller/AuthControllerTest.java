@@ -4,11 +4,20 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -17,13 +26,15 @@ import com.ernestas.auth.graphql.dto.MessageResult;
 import com.ernestas.auth.graphql.exception.InvalidAccessTokenException;
 import com.ernestas.auth.graphql.exception.InvalidRefreshTokenException;
 import com.ernestas.auth.model.User;
+import com.ernestas.auth.security.RefreshSingleFlight;
 import com.ernestas.auth.service.RefreshTokenService;
 import com.ernestas.auth.service.UserService;
 import com.ernestas.auth.util.CookieGenerator;
 import com.ernestas.auth.util.JwtTokenUtil;
+import com.ernestas.auth.util.VerifiedToken;
 
 import graphql.GraphQLContext;
-import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.servlet.http.Cookie;
 
 public class AuthControllerTest {
@@ -38,8 +49,10 @@ public class AuthControllerTest {
         jwtTokenUtil = mock(JwtTokenUtil.class);
         userService = mock(UserService.class);
         refreshTokenService = mock(RefreshTokenService.class);
+        when(refreshTokenService.isActiveFamily(anyString())).thenReturn(true);
         cookieGenerator = mock(CookieGenerator.class);
-        authController = new AuthController(jwtTokenUtil, userService, refreshTokenService, cookieGenerator, 1, 1);
+        authController = new AuthController(jwtTokenUtil, userService, refreshTokenService, cookieGenerator,
+                new RefreshSingleFlight(1, 1000, 5000, 100, new SimpleMeterRegistry()), 1, 1);
     }
 
     @Test
@@ -48,11 +61,28 @@ public class AuthControllerTest {
         GraphQLContext context = GraphQLContext.newContext().build();
         context.put("accessToken", token);
 
-        Claims claims = mock(Claims.class);
-        when(jwtTokenUtil.validateToken(token, "access")).thenReturn(true);
-        when(jwtTokenUtil.parseClaims(token)).thenReturn(claims);
-        when(claims.getSubject()).thenReturn("user@example.com");
-        when(claims.get("name")).thenReturn("John Doe");
+        when(jwtTokenUtil.verifyAccessToken(token))
+                .thenReturn(Optional.of(accessToken("user@example.com", "John Doe")));
+
+        AuthPayload result = authController.me(context);
+        assertEquals("user@example.com", result.email());
+        assertEquals("John Doe", result.name());
+    }
+
+    @Test
+    void testMe_CompactAccessToken_LoadsUserById() {
+        String token = "compact.token";
+        GraphQLContext context = GraphQLContext.newContext().build();
+        context.put("accessToken", token);
+
+        User user = new User();
+        user.setId(42);
+        user.setEmail("user@example.com");
+        user.setName("John Doe");
+
+        when(jwtTokenUtil.verifyAccessToken(token)).thenReturn(Optional.of(
+                new VerifiedToken("access", null, 42, null, null, null, Instant.now(), Instant.now().plusSeconds(60))));
+        when(userService.findUserById(42)).thenReturn(user);
 
         AuthPayload result = authController.me(context);
         assertEquals("user@example.com", result.email());
@@ -64,7 +94,7 @@ public class AuthControllerTest {
         GraphQLContext context = GraphQLContext.newContext().build();
         context.put("accessToken", "invalid.token");
 
-        when(jwtTokenUtil.validateToken("invalid.token", "access")).thenReturn(false);
+        when(jwtTokenUtil.verifyAccessToken("invalid.token")).thenReturn(Optional.empty());
 
         assertThrows(InvalidAccessTokenException.class, () -> authController.me(context));
     }
@@ -88,11 +118,11 @@ public class AuthControllerTest {
         User user = new User();
         user.setEmail(email);
 
-        when(jwtTokenUtil.validateToken(refreshToken, "refresh")).thenReturn(true);
-        when(jwtTokenUtil.getUsernameFromToken(refreshToken)).thenReturn(email);
+        VerifiedToken verified = refreshToken(email, "token-id");
+        when(jwtTokenUtil.verifySignature(refreshToken)).thenReturn(Optional.of(verified));
         when(userService.findUserByEmail(email)).thenReturn(user);
         when(jwtTokenUtil.generateAccessToken(user)).thenReturn(newAccessToken);
-        when(jwtTokenUtil.generateRefreshToken(user)).thenReturn(newRefreshToken);
+        when(jwtTokenUtil.rotateRefreshToken(verified, refreshToken, user)).thenReturn(Optional.of(newRefreshToken));
 
         Cookie accessCookie = new Cookie("accessToken", newAccessToken);
         Cookie refreshCookie = new Cookie("refreshToken", newRefreshToken);
@@ -113,9 +143,112 @@ public class AuthControllerTest {
         GraphQLContext context = GraphQLContext.newContext().build();
         context.put("refreshToken", "invalid.token");
 
-        when(jwtTokenUtil.validateToken("invalid.token", "refresh")).thenReturn(false);
+        when(jwtTokenUtil.verifySignature("invalid.token")).thenReturn(Optional.empty());
+
+        assertThrows(InvalidRefreshTokenException.class, () -> authController.refresh(context));
+    }
+
+    @Test
+    void testRefresh_AccessTokenPresented_ReturnsError() {
+        GraphQLContext context = GraphQLContext.newContext().build();
+        context.put("refreshToken", "access.token");
+
+        when(jwtTokenUtil.verifySignature("access.token"))
+                .thenReturn(Optional.of(accessToken("user@example.com", "John Doe")));
+
+        assertThrows(InvalidRefreshTokenException.class, () -> authController.refresh(context));
+        verify(jwtTokenUtil, never()).rotateRefreshToken(any(), any(), any());
+    }
+
+    @Test
+    void testRefresh_AlreadyRotatedToken_ReturnsError() {
+        String refreshToken = "used.refresh.token";
+        String email = "user@example.com";
+
+        GraphQLContext context = GraphQLContext.newContext().build();
+        context.put("refreshToken", refreshToken);
+
+        User user = new User();
+        user.setEmail(email);
+
+        VerifiedToken verified = refreshToken(email, "token-id");
+        when(jwtTokenUtil.verifySignature(refreshToken)).thenReturn(Optional.of(verified));
+        when(userService.findUserByEmail(email)).thenReturn(user);
+        when(jwtTokenUtil.rotateRefreshToken(verified, refreshToken, user)).thenReturn(Optional.empty());
+
+        assertThrows(InvalidRefreshTokenException.class, () -> authController.refresh(context));
+        verify(jwtTokenUtil, never()).generateAccessToken(any());
+        assertEquals(refreshToken, context.get("refreshToken"));
+    }
+
+    @Test
+    void testRefresh_RevokedFamily_ReturnsErrorWithoutLookingUpUser() {
+        String refreshToken = "revoked.refresh.token";
+        String email = "user@example.com";
+
+        GraphQLContext context = GraphQLContext.newContext().build();
+        context.put("refreshToken", refreshToken);
+
+        when(jwtTokenUtil.verifySignature(refreshToken)).thenReturn(Optional.of(refreshToken(email, "token-id")));
+        when(refreshTokenService.isActiveFamily("token-id")).thenReturn(false);
 
         assertThrows(InvalidRefreshTokenException.class, () -> authController.refresh(context));
+        verifyNoInteractions(userService);
+        verify(jwtTokenUtil, never()).rotateRefreshToken(any(), any(), any());
+        assertEquals(refreshToken, context.get("refreshToken"));
+    }
+
+    @Test
+    void testRefresh_RetryWithinGracePeriod_ReplaysSuccessorPair() {
+        String refreshToken = "valid.refresh.token";
+        String email = "user@example.com";
+
+        User user = new User();
+        user.setEmail(email);
+
+        VerifiedToken verified = refreshToken(email, "token-id");
+        when(jwtTokenUtil.verifySignature(refreshToken)).thenReturn(Optional.of(verified));
+        when(userService.findUserByEmail(email)).thenReturn(user);
+        when(jwtTokenUtil.rotateRefreshToken(verified, refreshToken, user))
+                .thenReturn(Optional.of("new.refresh.token"))
+                .thenReturn(Optional.empty());
+        when(jwtTokenUtil.generateAccessToken(user)).thenReturn("new.access.token", "other.access.token");
+        when(cookieGenerator.createCookie(any(), any(), any(), anyInt()))
+                .thenAnswer(invocation -> new Cookie(invocation.getArgument(0), invocation.getArgument(1)));
+
+        GraphQLContext first = GraphQLContext.newContext().of("refreshToken", refreshToken).build();
+        GraphQLContext retry = GraphQLContext.newContext().of("refreshToken", refreshToken).build();
+        authController.refresh(first);
+        authController.refresh(retry);
+
+        assertEquals("new.access.token", retry.get("accessToken"));
+        assertEquals("new.refresh.token", retry.get("refreshToken"));
+        verify(jwtTokenUtil, times(1)).rotateRefreshToken(any(), any(), any());
+    }
+
+    @Test
+    void testRefresh_TooManyConcurrentRefreshes_ReturnsErrorWithoutRotating() {
+        String refreshToken = "valid.refresh.token";
+        String email = "user@example.com";
+
+        GraphQLContext context = GraphQLContext.newContext().build();
+        context.put("refreshToken", refreshToken);
+
+        User user = new User();
+        user.setEmail(email);
+
+        RefreshSingleFlight refreshSingleFlight = mock(RefreshSingleFlight.class);
+        when(refreshSingleFlight.rotate(eq("token-id"), eq(refreshToken), any()))
+                .thenThrow(new RejectedExecutionException("Too many refreshes waiting for a concurrent rotation"));
+        AuthController coalescingController = new AuthController(jwtTokenUtil, userService, refreshTokenService,
+                cookieGenerator, refreshSingleFlight, 1, 1);
+
+        when(jwtTokenUtil.verifySignature(refreshToken)).thenReturn(Optional.of(refreshToken(email, "token-id")));
+        when(userService.findUserByEmail(email)).thenReturn(user);
+
+        assertThrows(InvalidRefreshTokenException.class, () -> coalescingController.refresh(context));
+        verify(jwtTokenUtil, never()).rotateRefreshToken(any(), any(), any());
+        assertEquals(refreshToken, context.get("refreshToken"));
     }
 
     @Test
@@ -125,7 +258,7 @@ public class AuthControllerTest {
     }
 
     @Test
-    void testRefresh_ValidToken_RevokesOldToken() {
+    void testRefresh_ValidToken_RotatesOldToken() {
         String refreshToken = "valid.refresh.token";
         String tokenId = "token-id-123";
         String email = "user@example.com";
@@ -138,12 +271,11 @@ public class AuthControllerTest {
         User user = new User();
         user.setEmail(email);
 
-        when(jwtTokenUtil.validateToken(refreshToken, "refresh")).thenReturn(true);
-        when(jwtTokenUtil.getTokenId(refreshToken)).thenReturn(tokenId);
-        when(jwtTokenUtil.getUsernameFromToken(refreshToken)).thenReturn(email);
+        VerifiedToken verified = refreshToken(email, tokenId);
+        when(jwtTokenUtil.verifySignature(refreshToken)).thenReturn(Optional.of(verified));
         when(userService.findUserByEmail(email)).thenReturn(user);
         when(jwtTokenUtil.generateAccessToken(user)).thenReturn(newAccessToken);
-        when(jwtTokenUtil.generateRefreshToken(user)).thenReturn(newRefreshToken);
+        when(jwtTokenUtil.rotateRefreshToken(verified, refreshToken, user)).thenReturn(Optional.of(newRefreshToken));
 
         Cookie accessCookie = new Cookie("accessToken", newAccessToken);
         Cookie refreshCookie = new Cookie("refreshToken", newRefreshToken);
@@ -155,11 +287,32 @@ public class AuthControllerTest {
         MessageResult result = authController.refresh(context);
 
         assertEquals("Access token refreshed", result.message());
-        verify(refreshTokenService).revokeRefreshToken(tokenId);
+        verify(jwtTokenUtil).rotateRefreshToken(verified, refreshToken, user);
+        verify(jwtTokenUtil, never()).generateRefreshToken(any());
+        verify(refreshTokenService, never()).revokeRefreshToken(any());
     }
 
     @Test
-    void testLogout_ValidAccessToken_RevokesAllTokens() {
+    void testLogout_ValidAccessToken_RevokesAllTokensWithoutLoadingUser() {
+        String accessToken = "valid.access.token";
+        String email = "user@example.com";
+
+        GraphQLContext context = GraphQLContext.newContext().build();
+        context.put("accessToken", accessToken);
+
+        when(jwtTokenUtil.verifyAccessToken(accessToken)).thenReturn(Optional.of(new VerifiedToken(
+                "access", email, 7, "John Doe", null, null, Instant.now(), Instant.now().plusSeconds(60))));
+
+        MessageResult result = authController.logout(context);
+
+        assertEquals("Successfully logged out", result.message());
+        verify(userService).revokeAllUserTokens(7, email);
+        verifyNoMoreInteractions(userService);
+        verify(refreshTokenService, never()).revokeAllTokensForUser(anyInt());
+    }
+
+    @Test
+    void testLogout_AccessTokenWithoutUserId_ResolvesUserByEmail() {
         String accessToken = "valid.access.token";
         String email = "user@example.com";
 
@@ -167,18 +320,17 @@ public class AuthControllerTest {
         context.put("accessToken", accessToken);
 
         User user = new User();
+        user.setId(7);
         user.setEmail(email);
 
-        Claims claims = mock(Claims.class);
-        when(jwtTokenUtil.validateToken(accessToken, "access")).thenReturn(true);
-        when(jwtTokenUtil.parseClaims(accessToken)).thenReturn(claims);
-        when(claims.getSubject()).thenReturn(email);
+        when(jwtTokenUtil.verifyAccessToken(accessToken))
+                .thenReturn(Optional.of(accessToken(email, "John Doe")));
         when(userService.findUserByEmail(email)).thenReturn(user);
 
         MessageResult result = authController.logout(context);
 
         assertEquals("Successfully logged out", result.message());
-        verify(refreshTokenService).revokeAllTokensForUser(user);
+        verify(userService).revokeAllUserTokens(7, email);
     }
 
     @Test
@@ -186,7 +338,7 @@ public class AuthControllerTest {
         GraphQLContext context = GraphQLContext.newContext().build();
         context.put("accessToken", "invalid.token");
 
-        when(jwtTokenUtil.validateToken("invalid.token", "access")).thenReturn(false);
+        when(jwtTokenUtil.verifyAccessToken("invalid.token")).thenReturn(Optional.empty());
 
         assertThrows(InvalidAccessTokenException.class, () -> authController.logout(context));
     }
@@ -196,4 +348,13 @@ public class AuthControllerTest {
         GraphQLContext context = GraphQLContext.newContext().build();
         assertThrows(InvalidAccessTokenException.class, () -> authController.logout(context));
     }
+
+    private static VerifiedToken accessToken(String email, String name) {
+        return new VerifiedToken("access", email, null, name, null, null, Instant.now(), Instant.now().plusSeconds(60));
+    }
+
+    private static VerifiedToken refreshToken(String email, String tokenId) {
+        return new VerifiedToken("refresh", email, null, null, tokenId, 0, Instant.now(),
+                Instant.now().plusSeconds(60));
+    }
 }
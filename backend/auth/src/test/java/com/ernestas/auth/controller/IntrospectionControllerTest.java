@@ -0,0 +1,56 @@
+package com.ernestas.auth.controller;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.json.JsonCompareMode;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.ernestas.auth.service.TokenIntrospection;
+import com.ernestas.auth.service.TokenIntrospectionService;
+
+class IntrospectionControllerTest {
+    private TokenIntrospectionService introspectionService;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        introspectionService = mock(TokenIntrospectionService.class);
+        mockMvc = MockMvcBuilders.standaloneSetup(new IntrospectionController(introspectionService, 2)).build();
+    }
+
+    @Test
+    void introspect_returnsResults() throws Exception {
+        when(introspectionService.introspect(List.of("a", "b"))).thenReturn(List.of(
+                new TokenIntrospection(true, "access", "user@example.com", 1900000000L),
+                TokenIntrospection.inactive()));
+
+        mockMvc.perform(post("/introspect")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"tokens\":[\"a\",\"b\"]}"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("""
+                        {"results":[
+                            {"active":true,"type":"access","sub":"user@example.com","exp":1900000000},
+                            {"active":false}
+                        ]}
+                        """, JsonCompareMode.STRICT));
+    }
+
+    @Test
+    void introspect_withTooManyTokens_returnsBadRequest() throws Exception {
+        mockMvc.perform(post("/introspect")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"tokens\":[\"a\",\"b\",\"c\"]}"))
+                .andExpect(status().isBadRequest());
+    }
+}
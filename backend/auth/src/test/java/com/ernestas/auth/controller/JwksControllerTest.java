@@ -0,0 +1,42 @@
+package com.ernestas.auth.controller;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.ernestas.auth.security.JwtKeyProvider;
+
+class JwksControllerTest {
+    private JwtKeyProvider keyProvider;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        keyProvider = new JwtKeyProvider("my-very-secret-key-which-is-long-enough-for-hmac", "EdDSA", "", "", "", "",
+                "", "", "", "", "", "", 60000, 300, "dev");
+        keyProvider.init();
+        mockMvc = MockMvcBuilders.standaloneSetup(new JwksController(keyProvider, 300)).build();
+    }
+
+    @Test
+    void jwks_returnsKeySetWithCachingHeaders() throws Exception {
+        mockMvc.perform(get("/.well-known/jwks.json"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(keyProvider.getJwksJson()))
+                .andExpect(header().string("ETag", keyProvider.getJwksEtag()))
+                .andExpect(header().string("Cache-Control", "max-age=300, public"));
+    }
+
+    @Test
+    void jwks_withMatchingEtag_returnsNotModified() throws Exception {
+        mockMvc.perform(get("/.well-known/jwks.json").header("If-None-Match", keyProvider.getJwksEtag()))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+}
@@ -2,12 +2,15 @@ package com.ernestas.auth.model;
 
 import static org.junit.jupiter.api.Assertions.*;
 
-import java.time.LocalDateTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 class RefreshTokenTest {
+    private static final byte[] TOKEN_ID = new byte[32];
+    private static final byte[] HASHED_TOKEN = new byte[32];
 
     private RefreshToken refreshToken;
     private User user;
@@ -21,19 +24,19 @@ class RefreshTokenTest {
 
         refreshToken = new RefreshToken();
         refreshToken.setId(1L);
-        refreshToken.setTokenId("test-token-id");
-        refreshToken.setHashedToken("hashed-token-value");
+        refreshToken.setTokenId(TOKEN_ID);
+        refreshToken.setHashedToken(HASHED_TOKEN);
         refreshToken.setUser(user);
-        refreshToken.setCreatedAt(LocalDateTime.now());
-        refreshToken.setExpiresAt(LocalDateTime.now().plusDays(7));
+        refreshToken.setCreatedAt(Instant.now());
+        refreshToken.setExpiresAt(Instant.now().plus(7, ChronoUnit.DAYS));
         refreshToken.setRevoked(false);
     }
 
     @Test
     void testRefreshTokenCreation() {
         assertNotNull(refreshToken);
-        assertEquals("test-token-id", refreshToken.getTokenId());
-        assertEquals("hashed-token-value", refreshToken.getHashedToken());
+        assertArrayEquals(TOKEN_ID, refreshToken.getTokenId());
+        assertArrayEquals(HASHED_TOKEN, refreshToken.getHashedToken());
         assertEquals(user, refreshToken.getUser());
         assertFalse(refreshToken.isRevoked());
         assertNull(refreshToken.getRevokedAt());
@@ -41,7 +44,7 @@ class RefreshTokenTest {
 
     @Test
     void testIsValid_withValidToken_returnsTrue() {
-        refreshToken.setExpiresAt(LocalDateTime.now().plusDays(1));
+        refreshToken.setExpiresAt(Instant.now().plus(1, ChronoUnit.DAYS));
         refreshToken.setRevoked(false);
 
         assertTrue(refreshToken.isValid());
@@ -49,7 +52,7 @@ class RefreshTokenTest {
 
     @Test
     void testIsValid_withExpiredToken_returnsFalse() {
-        refreshToken.setExpiresAt(LocalDateTime.now().minusDays(1));
+        refreshToken.setExpiresAt(Instant.now().minus(1, ChronoUnit.DAYS));
         refreshToken.setRevoked(false);
 
         assertFalse(refreshToken.isValid());
@@ -57,7 +60,7 @@ class RefreshTokenTest {
 
     @Test
     void testIsValid_withRevokedToken_returnsFalse() {
-        refreshToken.setExpiresAt(LocalDateTime.now().plusDays(1));
+        refreshToken.setExpiresAt(Instant.now().plus(1, ChronoUnit.DAYS));
         refreshToken.setRevoked(true);
 
         assertFalse(refreshToken.isValid());
@@ -65,13 +68,13 @@ class RefreshTokenTest {
 
     @Test
     void testRevoke_setsRevokedFields() {
-        LocalDateTime beforeRevoke = LocalDateTime.now();
+        Instant beforeRevoke = Instant.now();
 
         refreshToken.revoke();
 
         assertTrue(refreshToken.isRevoked());
         assertNotNull(refreshToken.getRevokedAt());
         assertTrue(refreshToken.getRevokedAt().isAfter(beforeRevoke) ||
-                refreshToken.getRevokedAt().isEqual(beforeRevoke));
+                refreshToken.getRevokedAt().equals(beforeRevoke));
     }
 }
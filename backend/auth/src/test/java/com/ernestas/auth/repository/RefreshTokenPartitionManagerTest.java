@@ -0,0 +1,202 @@
+package com.ernestas.auth.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static java.time.format.DateTimeFormatter.BASIC_ISO_DATE;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class RefreshTokenPartitionManagerTest {
+    private static final long TWO_DAYS = 2 * 86_400_000L;
+    private static final LocalDate TODAY = LocalDate.of(2026, 10, 17);
+    private static final long ONE_HOUR = 3_600_000L;
+
+    private JdbcTemplate jdbcTemplate;
+    private SimpleMeterRegistry meterRegistry;
+    private RefreshTokenPartitionManager partitionManager;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        meterRegistry = new SimpleMeterRegistry();
+        partitionManager = new RefreshTokenPartitionManager(jdbcTemplate, mock(PlatformTransactionManager.class),
+                TWO_DAYS, 1, ONE_HOUR, meterRegistry);
+    }
+
+    @Test
+    void createPartitions_shouldCoverRefreshTokenLifetimeAndExtraDays() {
+        partitionManager.createPartitions(TODAY);
+
+        verify(jdbcTemplate, times(4)).execute(anyString());
+        verify(jdbcTemplate).execute("CREATE TABLE IF NOT EXISTS refresh_tokens_p20261017 PARTITION OF refresh_tokens"
+                + " FOR VALUES FROM ('2026-10-17 00:00:00+00') TO ('2026-10-18 00:00:00+00')");
+        verify(jdbcTemplate).execute("CREATE TABLE IF NOT EXISTS refresh_tokens_p20261020 PARTITION OF refresh_tokens"
+                + " FOR VALUES FROM ('2026-10-20 00:00:00+00') TO ('2026-10-21 00:00:00+00')");
+    }
+
+    @Test
+    void dropExpiredPartitions_shouldDetachConcurrentlyThenDropOnlyPartitionsBeforeToday() {
+        when(jdbcTemplate.queryForList(anyString(), eq("refresh_tokens_p"))).thenReturn(List.of(
+                partition("refresh_tokens_p20261015", false),
+                partition("refresh_tokens_p20261016", false),
+                partition("refresh_tokens_p20261017", false),
+                partition("refresh_tokens_p20261018", false),
+                partition("refresh_tokens_parchive", false)));
+
+        int dropped = partitionManager.dropExpiredPartitions(TODAY);
+
+        assertEquals(2, dropped);
+        InOrder inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate)
+                .execute("ALTER TABLE refresh_tokens DETACH PARTITION refresh_tokens_p20261015 CONCURRENTLY");
+        inOrder.verify(jdbcTemplate).execute("DROP TABLE refresh_tokens_p20261015");
+        verify(jdbcTemplate).execute("DROP TABLE refresh_tokens_p20261016");
+        verify(jdbcTemplate, never()).execute("DROP TABLE refresh_tokens_p20261017");
+        verify(jdbcTemplate, never()).execute("DROP TABLE refresh_tokens_parchive");
+        verify(jdbcTemplate, never()).execute(contains("DETACH PARTITION refresh_tokens_p20261017"));
+        assertEquals(2, meterRegistry.get("auth.refresh.partitions.dropped").counter().count());
+    }
+
+    @Test
+    void dropExpiredPartitions_shouldFinalizeInterruptedDetachAndDropDetachedPartitions() {
+        when(jdbcTemplate.queryForList(anyString(), eq("refresh_tokens_p"))).thenReturn(List.of(
+                partition("refresh_tokens_p20261015", true),
+                partition("refresh_tokens_p20261016", null)));
+
+        assertEquals(2, partitionManager.dropExpiredPartitions(TODAY));
+
+        verify(jdbcTemplate).execute("ALTER TABLE refresh_tokens DETACH PARTITION refresh_tokens_p20261015 FINALIZE");
+        verify(jdbcTemplate).execute("DROP TABLE refresh_tokens_p20261015");
+        verify(jdbcTemplate, never()).execute(contains("DETACH PARTITION refresh_tokens_p20261016"));
+        verify(jdbcTemplate).execute("DROP TABLE refresh_tokens_p20261016");
+    }
+
+    @Test
+    void init_withPlainTable_shouldCopyOnlyUnexpiredRowsIntoPartitionsCoveringThem() {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        when(jdbcTemplate.queryForObject(contains("relkind"), eq(String.class))).thenReturn("r");
+        when(jdbcTemplate.queryForObject(contains("max(expires_at)"), eq(LocalDate.class)))
+                .thenReturn(today.plusDays(5));
+        when(jdbcTemplate.update(contains("INSERT INTO refresh_tokens"), any(Object[].class))).thenReturn(3);
+
+        partitionManager.init();
+
+        InOrder inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate).execute("ALTER TABLE refresh_tokens RENAME TO refresh_tokens_unpartitioned");
+        inOrder.verify(jdbcTemplate).execute(contains("PARTITION BY RANGE (expires_at)"));
+        inOrder.verify(jdbcTemplate).execute(contains("PRIMARY KEY (id, expires_at)"));
+        // Every unexpired row has a partition before it is copied
+        for (int i = 0; i <= 5; i++) {
+            verify(jdbcTemplate, atLeastOnce()).execute(startsWith(
+                    "CREATE TABLE IF NOT EXISTS refresh_tokens_p" + BASIC_ISO_DATE.format(today.plusDays(i))));
+        }
+        ArgumentCaptor<Object> cutoff = ArgumentCaptor.forClass(Object.class);
+        inOrder.verify(jdbcTemplate).update(eq("""
+                INSERT INTO refresh_tokens SELECT * FROM refresh_tokens_unpartitioned
+                WHERE expires_at >= ?
+                """), cutoff.capture());
+        assertEquals(today.atStartOfDay().atOffset(ZoneOffset.UTC), cutoff.getValue());
+        // Expired rows are dropped with the old table
+        inOrder.verify(jdbcTemplate).execute("DROP TABLE refresh_tokens_unpartitioned");
+        inOrder.verify(jdbcTemplate).execute("CREATE INDEX idx_refresh_tokens_token_id ON refresh_tokens (token_id)");
+        verify(jdbcTemplate, never()).execute(startsWith("CREATE TABLE IF NOT EXISTS refresh_tokens_p"
+                + BASIC_ISO_DATE.format(today.minusDays(1))));
+    }
+
+    @Test
+    void init_withPartitionedTable_shouldOnlyCreatePartitions() {
+        when(jdbcTemplate.queryForObject(contains("relkind"), eq(String.class))).thenReturn("p");
+
+        partitionManager.init();
+
+        verify(jdbcTemplate, never()).execute(contains("RENAME"));
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+        verify(jdbcTemplate, times(4)).execute(startsWith("CREATE TABLE IF NOT EXISTS refresh_tokens_p"));
+    }
+
+    @Test
+    void init_shouldTakeAdvisoryLockBeforeInspectingTable() {
+        when(jdbcTemplate.queryForObject(contains("relkind"), eq(String.class))).thenReturn("p");
+
+        partitionManager.init();
+
+        InOrder inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate).execute(startsWith("SELECT pg_advisory_xact_lock("));
+        inOrder.verify(jdbcTemplate).queryForObject(contains("relkind"), eq(String.class));
+        inOrder.verify(jdbcTemplate, atLeastOnce()).execute(startsWith("CREATE TABLE IF NOT EXISTS refresh_tokens_p"));
+    }
+
+    @Test
+    void init_withPartitionsNotCoveringLifetimeAndInterval_shouldFailStartup() {
+        RefreshTokenPartitionManager manager = new RefreshTokenPartitionManager(jdbcTemplate,
+                mock(PlatformTransactionManager.class), TWO_DAYS, 0, ONE_HOUR, meterRegistry);
+
+        assertThrows(IllegalStateException.class, manager::init);
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void maintain_withLock_shouldCreateAndDropPartitionsThenUnlock() {
+        JdbcTemplate session = mock(JdbcTemplate.class);
+        when(session.queryForObject(startsWith("SELECT pg_try_advisory_lock("), eq(Boolean.class))).thenReturn(true);
+        when(session.queryForList(anyString(), eq("refresh_tokens_p")))
+                .thenReturn(List.of(partition("refresh_tokens_p20261016", false)));
+
+        assertTrue(partitionManager.maintain(session, TODAY));
+
+        InOrder inOrder = inOrder(session);
+        inOrder.verify(session).queryForObject(startsWith("SELECT pg_try_advisory_lock("), eq(Boolean.class));
+        inOrder.verify(session).execute(startsWith("CREATE TABLE IF NOT EXISTS refresh_tokens_p20261017"));
+        inOrder.verify(session).execute("DROP TABLE refresh_tokens_p20261016");
+        inOrder.verify(session).queryForObject(startsWith("SELECT pg_advisory_unlock("), eq(Boolean.class));
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void maintain_withLockHeldByAnotherInstance_shouldSkip() {
+        JdbcTemplate session = mock(JdbcTemplate.class);
+        when(session.queryForObject(startsWith("SELECT pg_try_advisory_lock("), eq(Boolean.class)))
+                .thenReturn(false);
+
+        assertFalse(partitionManager.maintain(session, TODAY));
+
+        verify(session, never()).execute(anyString());
+        verify(session, never()).queryForList(anyString(), any(Object[].class));
+        verify(session, never()).queryForObject(startsWith("SELECT pg_advisory_unlock("), eq(Boolean.class));
+    }
+
+    private static Map<String, Object> partition(String name, Boolean detachPending) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("relname", name);
+        row.put("inhdetachpending", detachPending);
+        return row;
+    }
+}
@@ -0,0 +1,56 @@
+package com.ernestas.auth.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ernestas.auth.util.VerifiedToken;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class AccessTokenCacheTest {
+    private SimpleMeterRegistry meterRegistry;
+    private AccessTokenCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new AccessTokenCache(2, meterRegistry);
+    }
+
+    @Test
+    void get_afterPut_returnsVerifiedToken() {
+        VerifiedToken verified = token(Instant.now().plusSeconds(60));
+        cache.put(cache.key("token"), verified);
+
+        assertEquals(verified, cache.get(cache.key("token")).orElseThrow());
+        assertTrue(cache.get(cache.key("other-token")).isEmpty());
+    }
+
+    @Test
+    void get_expiredToken_returnsEmpty() {
+        cache.put(cache.key("token"), token(Instant.now().minusSeconds(1)));
+
+        assertTrue(cache.get(cache.key("token")).isEmpty());
+    }
+
+    @Test
+    void get_recordsHitsAndMisses() {
+        cache.put(cache.key("token"), token(Instant.now().plusSeconds(60)));
+        cache.get(cache.key("token"));
+        cache.get(cache.key("missing"));
+
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "accessTokens").tag("result", "hit")
+                .functionCounter().count());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "accessTokens").tag("result", "miss")
+                .functionCounter().count());
+    }
+
+    private static VerifiedToken token(Instant expiresAt) {
+        return new VerifiedToken("access", "test@example.com", null, "Test User", null, null, Instant.now(), expiresAt);
+    }
+}
@@ -0,0 +1,102 @@
+package com.ernestas.auth.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ernestas.auth.model.User;
+import com.ernestas.auth.util.VerifiedToken;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class AccessTokenDenylistTest {
+    private SimpleMeterRegistry meterRegistry;
+    private AccessTokenDenylist denylist;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        denylist = new AccessTokenDenylist(60_000, 100, meterRegistry);
+        user = new User();
+        user.setId(42);
+        user.setEmail("user@example.com");
+    }
+
+    @Test
+    void isRevoked_tokenIssuedBeforeRevocation_returnsTrue() {
+        Instant now = Instant.now();
+        denylist.revoke(user.getId(), user.getEmail(), now);
+
+        assertTrue(denylist.isRevoked(standardToken("user@example.com", now.minusSeconds(5))));
+        assertTrue(denylist.isRevoked(compactToken(42, now.minusSeconds(5))));
+        assertEquals(2, meterRegistry.get("auth.access.denylist.size").gauge().value());
+    }
+
+    @Test
+    void isRevoked_tokenIssuedAfterRevocation_returnsFalse() {
+        Instant now = Instant.now();
+        denylist.revoke(user.getId(), user.getEmail(), now.minusSeconds(10));
+
+        assertFalse(denylist.isRevoked(standardToken("user@example.com", now)));
+        assertFalse(denylist.isRevoked(compactToken(42, now)));
+    }
+
+    @Test
+    void isRevoked_tokenIssuedInRevocationSecond_returnsTrue() {
+        Instant now = Instant.parse("2026-01-01T12:00:00.900Z");
+        denylist.revoke(user.getId(), user.getEmail(), now);
+
+        assertTrue(denylist.isRevoked(standardToken("user@example.com", now.truncatedTo(ChronoUnit.SECONDS))));
+        assertTrue(denylist.isRevoked(compactToken(42, now.truncatedTo(ChronoUnit.SECONDS))));
+        assertFalse(denylist.isRevoked(compactToken(42, now.truncatedTo(ChronoUnit.SECONDS).plusSeconds(1))));
+    }
+
+    @Test
+    void isRevoked_otherUser_returnsFalse() {
+        Instant now = Instant.now();
+        denylist.revoke(user.getId(), user.getEmail(), now);
+
+        assertFalse(denylist.isRevoked(standardToken("other@example.com", now.minusSeconds(5))));
+        assertFalse(denylist.isRevoked(compactToken(43, now.minusSeconds(5))));
+    }
+
+    @Test
+    void isRevoked_afterAccessTokenLifetime_returnsFalse() throws InterruptedException {
+        AccessTokenDenylist shortLived = new AccessTokenDenylist(50, 100, new SimpleMeterRegistry());
+        Instant now = Instant.now();
+        shortLived.revoke(user.getId(), user.getEmail(), now);
+
+        Thread.sleep(100);
+
+        assertFalse(shortLived.isRevoked(standardToken("user@example.com", now.minusSeconds(5))));
+    }
+
+    @Test
+    void isRevoked_revokedById_coversTokensCarryingTheId() {
+        Instant now = Instant.now();
+        denylist.revoke(42, null, now);
+
+        assertTrue(denylist.isRevoked(standardToken("user@example.com", 42, now.minusSeconds(5))));
+        assertTrue(denylist.isRevoked(compactToken(42, now.minusSeconds(5))));
+        assertFalse(denylist.isRevoked(standardToken("user@example.com", now.minusSeconds(5))));
+    }
+
+    private static VerifiedToken standardToken(String email, int userId, Instant issuedAt) {
+        return new VerifiedToken("access", email, userId, "User", null, null, issuedAt, issuedAt.plusSeconds(60));
+    }
+
+    private static VerifiedToken standardToken(String email, Instant issuedAt) {
+        return new VerifiedToken("access", email, null, "User", null, null, issuedAt, issuedAt.plusSeconds(60));
+    }
+
+    private static VerifiedToken compactToken(int userId, Instant issuedAt) {
+        return new VerifiedToken("access", null, userId, null, null, null, issuedAt, issuedAt.plusSeconds(60));
+    }
+}
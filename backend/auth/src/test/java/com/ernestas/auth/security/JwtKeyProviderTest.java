@@ -0,0 +1,207 @@
+package com.ernestas.auth.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.KeyPair;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+
+import io.jsonwebtoken.Jwts;
+
+class JwtKeyProviderTest {
+    private static final String SECRET = "my-very-secret-key-which-is-long-enough-for-hmac";
+    private static final Duration OVERLAP = Duration.ofHours(1);
+
+    @Test
+    void init_withHs256_signsWithSecretAndPublishesNoKeys() {
+        JwtKeyProvider provider = createProvider("HS256", "", "", "");
+
+        assertNull(provider.getSigningKey().keyId());
+        assertSame(provider.getSigningKey().verificationKey(), provider.getVerificationKey(null));
+        assertEquals("{\"keys\":[]}", provider.getJwksJson());
+    }
+
+    @Test
+    void init_withEdDsa_generatesKeyAndPublishesJwk() {
+        JwtKeyProvider provider = createProvider("EdDSA", "", "", "");
+
+        String keyId = provider.getSigningKey().keyId();
+        assertNotNull(keyId);
+        assertSame(provider.getSigningKey().verificationKey(), provider.getVerificationKey(keyId));
+        assertTrue(provider.getJwksJson().contains("\"kid\":\"" + keyId + "\""));
+        assertTrue(provider.getJwksJson().contains("\"crv\":\"Ed25519\""));
+    }
+
+    @Test
+    void init_withConfiguredEs256KeyPair_usesConfiguredKeyId() {
+        KeyPair keyPair = Jwts.SIG.ES256.keyPair().build();
+        JwtKeyProvider provider = createProvider("ES256", pem("PRIVATE KEY", keyPair.getPrivate().getEncoded()),
+                pem("PUBLIC KEY", keyPair.getPublic().getEncoded()), "auth-key-1");
+
+        assertEquals("auth-key-1", provider.getSigningKey().keyId());
+        assertEquals(keyPair.getPublic(), provider.getVerificationKey("auth-key-1"));
+        assertNull(provider.getVerificationKey("unknown"));
+    }
+
+    @Test
+    void getJwksEtag_changesWithKeySet() {
+        JwtKeyProvider first = createProvider("ES256", "", "", "");
+        JwtKeyProvider second = createProvider("ES256", "", "", "");
+
+        assertTrue(first.getJwksEtag().startsWith("\""));
+        assertNotEquals(first.getJwksEtag(), second.getJwksEtag());
+    }
+
+    @Test
+    void init_withNextKey_publishesItBeforeItSigns() {
+        JwtKeyProvider provider = createRotatingProvider(Instant.now().plus(Duration.ofHours(1)), null);
+
+        assertEquals("current", provider.getSigningKey().keyId());
+        assertNotNull(provider.getVerificationKey("next"));
+        assertEquals(2, countKeys(provider.getJwksJson()));
+    }
+
+    @Test
+    void init_afterNextKeyActivates_signsWithNextKeyAndStillVerifiesCurrentKey() {
+        JwtKeyProvider provider = createRotatingProvider(Instant.now().minusSeconds(1), null);
+
+        assertEquals("next", provider.getSigningKey().keyId());
+        assertNotNull(provider.getVerificationKey("current"));
+        assertEquals(2, countKeys(provider.getJwksJson()));
+    }
+
+    @Test
+    void init_afterOverlap_dropsCurrentKey() {
+        JwtKeyProvider provider = createRotatingProvider(Instant.now().minus(OVERLAP).minusSeconds(1), null);
+
+        assertEquals("next", provider.getSigningKey().keyId());
+        assertNull(provider.getVerificationKey("current"));
+        assertEquals(1, countKeys(provider.getJwksJson()));
+    }
+
+    @Test
+    void retireKeys_dropsCurrentKeyOnlyAfterOverlap() {
+        Instant activatesAt = Instant.now().minusSeconds(1);
+        JwtKeyProvider provider = createRotatingProvider(activatesAt, null);
+        String jwksEtag = provider.getJwksEtag();
+
+        provider.retireKeys(activatesAt.plus(OVERLAP).minusSeconds(1));
+        assertEquals(jwksEtag, provider.getJwksEtag());
+
+        provider.retireKeys(activatesAt.plus(OVERLAP));
+        assertEquals("next", provider.getSigningKey().keyId());
+        assertNotEquals(jwksEtag, provider.getJwksEtag());
+        assertFalse(provider.getJwksJson().contains("\"kid\":\"current\""));
+    }
+
+    @Test
+    void init_withPreviousKey_verifiesButNeverSigns() {
+        KeyPair previous = Jwts.SIG.ES256.keyPair().build();
+        JwtKeyProvider provider = createRotatingProvider(Instant.now().plus(Duration.ofHours(1)), previous);
+
+        assertEquals("current", provider.getSigningKey().keyId());
+        assertEquals(previous.getPublic(), provider.getVerificationKey("previous"));
+        assertEquals(3, countKeys(provider.getJwksJson()));
+    }
+
+    @Test
+    void init_withIncompleteNextKey_throwsException() {
+        KeyPair keyPair = Jwts.SIG.ES256.keyPair().build();
+        JwtKeyProvider provider = new JwtKeyProvider(SECRET, "ES256", privatePem(keyPair), publicPem(keyPair), "",
+                "", publicPem(Jwts.SIG.ES256.keyPair().build()), "", Instant.now().toString(), "", "", "",
+                OVERLAP.toMillis(), 300, "prod");
+        assertThrows(IllegalStateException.class, provider::init);
+    }
+
+    @Test
+    void init_withDuplicateKeyIds_throwsException() {
+        KeyPair current = Jwts.SIG.ES256.keyPair().build();
+        KeyPair next = Jwts.SIG.ES256.keyPair().build();
+        JwtKeyProvider provider = new JwtKeyProvider(SECRET, "ES256", privatePem(current), publicPem(current),
+                "key", privatePem(next), publicPem(next), "key", Instant.now().toString(), "", "", "",
+                OVERLAP.toMillis(), 300, "prod");
+        assertThrows(IllegalStateException.class, provider::init);
+    }
+
+    @Test
+    void init_withoutKeyPairOutsideDevProfile_throwsException() {
+        JwtKeyProvider provider = new JwtKeyProvider(SECRET, "ES256", "", "", "", "", "", "", "", "", "", "", 60000,
+                300, "prod");
+        assertThrows(IllegalStateException.class, provider::init);
+    }
+
+    @Test
+    void getVerificationKey_withoutKeyId_acceptsSharedSecretUntilCutoff() {
+        KeyPair keyPair = Jwts.SIG.ES256.keyPair().build();
+        JwtKeyProvider accepting = new JwtKeyProvider(SECRET, "ES256", privatePem(keyPair), publicPem(keyPair), "",
+                "", "", "", "", "", "", Instant.now().plus(Duration.ofHours(1)).toString(), 60000, 300, "prod");
+        JwtKeyProvider rejecting = new JwtKeyProvider(SECRET, "ES256", privatePem(keyPair), publicPem(keyPair), "",
+                "", "", "", "", "", "", Instant.now().minusSeconds(1).toString(), 60000, 300, "prod");
+        accepting.init();
+        rejecting.init();
+
+        assertNotNull(accepting.getVerificationKey(null));
+        assertNull(rejecting.getVerificationKey(null));
+    }
+
+    @Test
+    void getVerificationKey_withHs256_ignoresCutoff() {
+        JwtKeyProvider provider = new JwtKeyProvider(SECRET, "HS256", "", "", "", "", "", "", "", "", "",
+                Instant.now().toString(), 60000, 300, "prod");
+        provider.init();
+
+        assertSame(provider.getSigningKey().verificationKey(), provider.getVerificationKey(null));
+    }
+
+    @Test
+    void init_withUnsupportedAlgorithm_throwsException() {
+        JwtKeyProvider provider = new JwtKeyProvider(SECRET, "RS256", "", "", "", "", "", "", "", "", "", "", 60000,
+                300, "dev");
+        assertThrows(IllegalStateException.class, provider::init);
+    }
+
+    private static JwtKeyProvider createProvider(String algorithm, String privateKey, String publicKey,
+            String keyId) {
+        JwtKeyProvider provider = new JwtKeyProvider(SECRET, algorithm, privateKey, publicKey, keyId, "", "", "", "",
+                "", "", "", 60000, 300, "dev");
+        provider.init();
+        return provider;
+    }
+
+    private static JwtKeyProvider createRotatingProvider(Instant nextActivatesAt, KeyPair previous) {
+        KeyPair current = Jwts.SIG.ES256.keyPair().build();
+        KeyPair next = Jwts.SIG.ES256.keyPair().build();
+        JwtKeyProvider provider = new JwtKeyProvider(SECRET, "ES256", privatePem(current), publicPem(current),
+                "current", privatePem(next), publicPem(next), "next", nextActivatesAt.toString(),
+                previous != null ? publicPem(previous) : "", "previous", "", OVERLAP.toMillis(), 300, "prod");
+        provider.init();
+        return provider;
+    }
+
+    private static int countKeys(String jwksJson) {
+        return jwksJson.split("\"kid\"", -1).length - 1;
+    }
+
+    private static String privatePem(KeyPair keyPair) {
+        return pem("PRIVATE KEY", keyPair.getPrivate().getEncoded());
+    }
+
+    private static String publicPem(KeyPair keyPair) {
+        return pem("PUBLIC KEY", keyPair.getPublic().getEncoded());
+    }
+
+    private static String pem(String type, byte[] encoded) {
+        return "-----BEGIN " + type + "-----\n" + Base64.getMimeEncoder().encodeToString(encoded)
+                + "\n-----END " + type + "-----\n";
+    }
+}
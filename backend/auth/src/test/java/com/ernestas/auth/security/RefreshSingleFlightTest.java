@@ -0,0 +1,196 @@
+package com.ernestas.auth.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class RefreshSingleFlightTest {
+    private SimpleMeterRegistry meterRegistry;
+    private ExecutorService executor;
+    private CountDownLatch rotating;
+    private CountDownLatch release;
+    private AtomicInteger rotations;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        executor = Executors.newCachedThreadPool();
+        rotating = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        rotations = new AtomicInteger();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void rotate_concurrentSameToken_sharesOneRotation() throws Exception {
+        RefreshSingleFlight singleFlight = new RefreshSingleFlight(10, 5000, 0, 100, meterRegistry);
+        Future<Optional<String>> leader = executor.submit(
+                () -> singleFlight.rotate("token-id", "token", blockingRotation(Optional.of("successor"))));
+        assertTrue(rotating.await(5, TimeUnit.SECONDS));
+
+        Future<Optional<String>> follower = executor.submit(
+                () -> singleFlight.rotate("token-id", "token", blockingRotation(Optional.of("other"))));
+        awaitWaiters(1);
+        release.countDown();
+
+        assertEquals(Optional.of("successor"), leader.get(5, TimeUnit.SECONDS));
+        assertEquals(Optional.of("successor"), follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, rotations.get());
+        assertEquals(1, meterRegistry.get("auth.refresh.coalesced").counter().count());
+    }
+
+    @Test
+    void rotate_concurrentFailure_isShared() throws Exception {
+        RefreshSingleFlight singleFlight = new RefreshSingleFlight(10, 5000, 0, 100, meterRegistry);
+        Future<Optional<String>> leader = executor.submit(() -> singleFlight.rotate("token-id", "token", () -> {
+            rotating.countDown();
+            await(release);
+            throw new IllegalStateException("Refresh token does not belong to the user");
+        }));
+        assertTrue(rotating.await(5, TimeUnit.SECONDS));
+
+        Future<Optional<String>> follower = executor.submit(
+                () -> singleFlight.rotate("token-id", "token", blockingRotation(Optional.of("other"))));
+        awaitWaiters(1);
+        release.countDown();
+
+        ExecutionException leaderFailure = assertThrows(ExecutionException.class,
+                () -> leader.get(5, TimeUnit.SECONDS));
+        ExecutionException followerFailure = assertThrows(ExecutionException.class,
+                () -> follower.get(5, TimeUnit.SECONDS));
+        assertTrue(leaderFailure.getCause() instanceof IllegalStateException);
+        assertTrue(followerFailure.getCause() instanceof IllegalStateException);
+        assertEquals(0, rotations.get());
+    }
+
+    @Test
+    void rotate_differentTokenOfSameFamily_isNotCoalesced() throws Exception {
+        RefreshSingleFlight singleFlight = new RefreshSingleFlight(10, 5000, 0, 100, meterRegistry);
+        executor.submit(() -> singleFlight.rotate("token-id", "token", blockingRotation(Optional.of("successor"))));
+        assertTrue(rotating.await(5, TimeUnit.SECONDS));
+
+        Optional<String> result = singleFlight.rotate("token-id", "older-token", Optional::empty);
+
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    void rotate_overWaiterBound_isRejected() throws Exception {
+        RefreshSingleFlight singleFlight = new RefreshSingleFlight(0, 5000, 0, 100, meterRegistry);
+        executor.submit(() -> singleFlight.rotate("token-id", "token", blockingRotation(Optional.of("successor"))));
+        assertTrue(rotating.await(5, TimeUnit.SECONDS));
+
+        assertThrows(RejectedExecutionException.class,
+                () -> singleFlight.rotate("token-id", "token", blockingRotation(Optional.of("other"))));
+        assertEquals(1, rotations.get());
+        assertEquals(1, meterRegistry.get("auth.refresh.coalesce.rejected").counter().count());
+    }
+
+    @Test
+    void rotate_afterWaitTimeout_isRejected() throws Exception {
+        RefreshSingleFlight singleFlight = new RefreshSingleFlight(10, 10, 0, 100, meterRegistry);
+        executor.submit(() -> singleFlight.rotate("token-id", "token", blockingRotation(Optional.of("successor"))));
+        assertTrue(rotating.await(5, TimeUnit.SECONDS));
+
+        assertThrows(RejectedExecutionException.class,
+                () -> singleFlight.rotate("token-id", "token", blockingRotation(Optional.of("other"))));
+        assertEquals(0, meterRegistry.get("auth.refresh.coalesce.waiters").gauge().value());
+    }
+
+    @Test
+    void rotate_withinGracePeriod_replaysSuccessors() {
+        RefreshSingleFlight singleFlight = new RefreshSingleFlight(10, 5000, 60_000, 100, meterRegistry);
+        release.countDown();
+
+        Optional<String> first = singleFlight.rotate("token-id", "token", blockingRotation(Optional.of("successor")));
+        Optional<String> retry = singleFlight.rotate("token-id", "token", blockingRotation(Optional.of("other")));
+
+        assertEquals(Optional.of("successor"), first);
+        assertEquals(Optional.of("successor"), retry);
+        assertEquals(1, rotations.get());
+        assertEquals(1, meterRegistry.get("auth.refresh.grace.replayed").counter().count());
+    }
+
+    @Test
+    void rotate_withinGracePeriod_rotatesSuccessorNormally() {
+        RefreshSingleFlight singleFlight = new RefreshSingleFlight(10, 5000, 60_000, 100, meterRegistry);
+        release.countDown();
+
+        singleFlight.rotate("token-id", "token", blockingRotation(Optional.of("successor")));
+        Optional<String> next = singleFlight.rotate("token-id", "successor", blockingRotation(Optional.of("next")));
+
+        assertEquals(Optional.of("next"), next);
+        assertEquals(2, rotations.get());
+    }
+
+    @Test
+    void rotate_failedRotation_isNotReplayed() {
+        RefreshSingleFlight singleFlight = new RefreshSingleFlight(10, 5000, 60_000, 100, meterRegistry);
+        release.countDown();
+
+        singleFlight.rotate("token-id", "token", blockingRotation(Optional.empty()));
+        Optional<String> retry = singleFlight.rotate("token-id", "token", blockingRotation(Optional.of("successor")));
+
+        assertEquals(Optional.of("successor"), retry);
+        assertEquals(2, rotations.get());
+    }
+
+    @Test
+    void rotate_withoutGracePeriod_rotatesAgain() {
+        RefreshSingleFlight singleFlight = new RefreshSingleFlight(10, 5000, 0, 100, meterRegistry);
+        release.countDown();
+
+        singleFlight.rotate("token-id", "token", blockingRotation(Optional.of("successor")));
+        singleFlight.rotate("token-id", "token", blockingRotation(Optional.empty()));
+
+        assertEquals(2, rotations.get());
+    }
+
+    private Supplier<Optional<String>> blockingRotation(Optional<String> result) {
+        return () -> {
+            rotations.incrementAndGet();
+            rotating.countDown();
+            await(release);
+            return result;
+        };
+    }
+
+    private void awaitWaiters(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.get("auth.refresh.coalesce.waiters").gauge().value() < count
+                && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
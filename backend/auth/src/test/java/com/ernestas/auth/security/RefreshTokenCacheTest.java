@@ -0,0 +1,104 @@
+package com.ernestas.auth.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ernestas.auth.model.RefreshTokenState;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class RefreshTokenCacheTest {
+    private static final byte[] TOKEN_ID = new byte[32];
+
+    private SimpleMeterRegistry meterRegistry;
+    private RefreshTokenCache cache;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new RefreshTokenCache(2, 60_000, meterRegistry);
+        loads = new AtomicInteger();
+    }
+
+    @Test
+    void get_afterLoad_returnsCachedToken() {
+        RefreshTokenState token = token(Instant.now().plusSeconds(60));
+
+        assertSame(token, cache.get(TOKEN_ID, loader(token)).orElseThrow());
+        assertSame(token, cache.get(TOKEN_ID, loader(token)).orElseThrow());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void get_unknownToken_isNotCached() {
+        assertTrue(cache.get(TOKEN_ID, loader(null)).isEmpty());
+        assertTrue(cache.get(TOKEN_ID, loader(null)).isEmpty());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void get_expiredToken_isNotKept() {
+        RefreshTokenState token = token(Instant.now().minusSeconds(1));
+
+        cache.get(TOKEN_ID, loader(token));
+        cache.get(TOKEN_ID, loader(token));
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void get_afterTimeToLive_reloadsToken() {
+        RefreshTokenCache shortLived = new RefreshTokenCache(2, 0, meterRegistry);
+        RefreshTokenState token = token(Instant.now().plusSeconds(60));
+
+        shortLived.get(TOKEN_ID, loader(token));
+        shortLived.get(TOKEN_ID, loader(token));
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void invalidateAll_forcesReload() {
+        RefreshTokenState token = token(Instant.now().plusSeconds(60));
+        cache.get(TOKEN_ID, loader(token));
+
+        cache.invalidateAll(List.of(TOKEN_ID.clone()));
+        cache.get(TOKEN_ID, loader(token));
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void get_recordsHitsAndMisses() {
+        RefreshTokenState token = token(Instant.now().plusSeconds(60));
+        cache.get(TOKEN_ID, loader(token));
+        cache.get(TOKEN_ID, loader(token));
+
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "refreshTokens").tag("result", "hit")
+                .functionCounter().count());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "refreshTokens").tag("result", "miss")
+                .functionCounter().count());
+    }
+
+    private Function<byte[], Optional<RefreshTokenState>> loader(RefreshTokenState token) {
+        return tokenId -> {
+            loads.incrementAndGet();
+            return Optional.ofNullable(token);
+        };
+    }
+
+    private static RefreshTokenState token(Instant expiresAt) {
+        return new RefreshTokenState(TOKEN_ID, new byte[32], expiresAt, false);
+    }
+}
@@ -0,0 +1,57 @@
+package com.ernestas.auth.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class TokenIdGeneratorTest {
+
+    @Test
+    void nextTokenId_returns32RandomBytesInBase64Url() {
+        String tokenId = new TokenIdGenerator(1024).nextTokenId();
+
+        assertEquals(43, tokenId.length());
+        assertEquals(32, Base64.getUrlDecoder().decode(tokenId).length);
+    }
+
+    @Test
+    void nextTokenId_isUniqueAcrossBufferRefillsAndReseeds() {
+        TokenIdGenerator generator = new TokenIdGenerator(2);
+        Set<String> tokenIds = new HashSet<>();
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(tokenIds.add(generator.nextTokenId()));
+        }
+    }
+
+    @Test
+    void nextTokenId_isUniqueAcrossThreads() throws Exception {
+        TokenIdGenerator generator = new TokenIdGenerator(1024);
+        Set<String> tokenIds = ConcurrentHashMap.newKeySet();
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            Future<?>[] futures = new Future<?>[8];
+            for (int t = 0; t < futures.length; t++) {
+                futures[t] = executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        tokenIds.add(generator.nextTokenId());
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        assertEquals(4000, tokenIds.size());
+    }
+}
@@ -0,0 +1,152 @@
+package com.ernestas.auth.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.ernestas.auth.repository.RefreshTokenRepository;
+import com.ernestas.auth.security.RefreshTokenCache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class RefreshTokenPurgeServiceTest {
+    private static final long RETENTION = Duration.ofDays(7).toMillis();
+
+    private RefreshTokenRepository refreshTokenRepository;
+    private RefreshTokenCache refreshTokenCache;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        refreshTokenRepository = mock(RefreshTokenRepository.class);
+        refreshTokenCache = mock(RefreshTokenCache.class);
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void purge_shouldDeleteInBatchesUntilShortBatch() {
+        RefreshTokenPurgeService purgeService = createPurgeService(100, 1000, 60_000);
+        when(refreshTokenRepository.countByExpiresAtBefore(any())).thenReturn(250L);
+        when(refreshTokenRepository.deleteExpiredBatch(any(), anyInt()))
+                .thenReturn(ids(100))
+                .thenReturn(ids(100))
+                .thenReturn(ids(50));
+        when(refreshTokenRepository.countByRevokedAtBefore(any())).thenReturn(30L);
+        when(refreshTokenRepository.deleteRevokedBatch(any(), anyInt())).thenReturn(ids(30));
+
+        long deleted = purgeService.purge();
+
+        assertEquals(280, deleted);
+        verify(refreshTokenRepository, times(3)).deleteExpiredBatch(any(), eq(100));
+        verify(refreshTokenRepository, times(1)).deleteRevokedBatch(any(), eq(100));
+        assertEquals(250, meterRegistry.get("auth.refresh.purge.deleted").tag("reason", "expired").counter().count());
+        assertEquals(30, meterRegistry.get("auth.refresh.purge.deleted").tag("reason", "revoked").counter().count());
+        assertEquals(0, meterRegistry.get("auth.refresh.purge.backlog").tag("reason", "expired").gauge().value());
+        assertTrue(meterRegistry.get("auth.refresh.purge.rate").gauge().value() > 0);
+    }
+
+    @Test
+    void purge_shouldKeepRevokedTokensForRetentionPeriod() {
+        RefreshTokenPurgeService purgeService = createPurgeService(100, 1000, 60_000);
+        Instant before = Instant.now();
+
+        purgeService.purge();
+
+        ArgumentCaptor<Instant> expiredCutoff = ArgumentCaptor.forClass(Instant.class);
+        ArgumentCaptor<Instant> revokedCutoff = ArgumentCaptor.forClass(Instant.class);
+        verify(refreshTokenRepository).deleteExpiredBatch(expiredCutoff.capture(), anyInt());
+        verify(refreshTokenRepository).deleteRevokedBatch(revokedCutoff.capture(), anyInt());
+        assertFalse(expiredCutoff.getValue().isBefore(before));
+        assertEquals(expiredCutoff.getValue().minus(Duration.ofDays(7)), revokedCutoff.getValue());
+    }
+
+    @Test
+    void purge_shouldEvictDeletedTokensFromCache() {
+        RefreshTokenPurgeService purgeService = createPurgeService(100, 1000, 60_000);
+        List<byte[]> expiredIds = ids(2);
+        List<byte[]> revokedIds = ids(1);
+        when(refreshTokenRepository.deleteExpiredBatch(any(), anyInt())).thenReturn(expiredIds);
+        when(refreshTokenRepository.deleteRevokedBatch(any(), anyInt())).thenReturn(revokedIds);
+
+        purgeService.purge();
+
+        verify(refreshTokenCache).invalidateAll(expiredIds);
+        verify(refreshTokenCache).invalidateAll(revokedIds);
+    }
+
+    @Test
+    void purge_withSlowBatches_shouldShrinkBatchSize() {
+        RefreshTokenPurgeService purgeService = createPurgeService(400, 5, 60_000);
+        when(refreshTokenRepository.deleteExpiredBatch(any(), anyInt())).thenAnswer(invocation -> {
+            Thread.sleep(20);
+            return List.of();
+        });
+        when(refreshTokenRepository.deleteRevokedBatch(any(), anyInt())).thenAnswer(invocation -> {
+            Thread.sleep(20);
+            return List.of();
+        });
+
+        purgeService.purge();
+
+        verify(refreshTokenRepository).deleteExpiredBatch(any(), eq(400));
+        verify(refreshTokenRepository).deleteRevokedBatch(any(), eq(200));
+        assertEquals(100, purgeService.batchSize());
+    }
+
+    @Test
+    void purge_afterMaxDuration_shouldStop() {
+        RefreshTokenPurgeService purgeService = createPurgeService(100, 1000, 0);
+
+        assertEquals(0, purgeService.purge());
+        verify(refreshTokenRepository, times(0)).deleteExpiredBatch(any(), anyInt());
+        verify(refreshTokenRepository, times(0)).deleteRevokedBatch(any(), anyInt());
+    }
+
+    @Test
+    void purge_withPartitionedStorage_shouldOnlyDeleteRevokedTokens() {
+        RefreshTokenPurgeService purgeService = new RefreshTokenPurgeService(refreshTokenRepository, refreshTokenCache,
+                100, 1000, RETENTION, 60_000, true, meterRegistry);
+        when(refreshTokenRepository.deleteRevokedBatch(any(), anyInt())).thenReturn(ids(5));
+
+        assertEquals(5, purgeService.purge());
+        verify(refreshTokenRepository, times(0)).deleteExpiredBatch(any(), anyInt());
+        verify(refreshTokenRepository, times(0)).countByExpiresAtBefore(any());
+    }
+
+    @Test
+    void constructor_withTinyBatchSize_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> createPurgeService(1, 1000, 60_000));
+        verifyNoInteractions(refreshTokenRepository);
+    }
+
+    private RefreshTokenPurgeService createPurgeService(int batchSize, long targetLatency, long maxDuration) {
+        return new RefreshTokenPurgeService(refreshTokenRepository, refreshTokenCache, batchSize, targetLatency,
+                RETENTION, maxDuration, false, meterRegistry);
+    }
+
+    private static List<byte[]> ids(int count) {
+        List<byte[]> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add(new byte[32]);
+        }
+        return ids;
+    }
+}
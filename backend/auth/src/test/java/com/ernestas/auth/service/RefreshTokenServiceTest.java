@@ -1,35 +1,65 @@
 package com.ernestas.auth.service;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
-import java.time.LocalDateTime;
-import java.util.Collections;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.InjectMocks;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 
 import com.ernestas.auth.model.RefreshToken;
+import com.ernestas.auth.model.RefreshTokenState;
 import com.ernestas.auth.model.User;
 import com.ernestas.auth.repository.RefreshTokenRepository;
+import com.ernestas.auth.security.RefreshTokenCache;
+import com.ernestas.auth.security.RefreshTokenDigester;
+import com.ernestas.auth.security.TokenIdGenerator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 class RefreshTokenServiceTest {
+    private static final String TOKEN_ID = tokenId(1);
+    private static final String FAMILY_ID = tokenId(2);
 
     @Mock
     private RefreshTokenRepository refreshTokenRepository;
 
-    @InjectMocks
+    @Spy
+    private TokenIdGenerator tokenIdGenerator = new TokenIdGenerator(1024);
+
+    private final RefreshTokenDigester tokenDigester = new RefreshTokenDigester("test-pepper-".repeat(3), false);
+
+    private RefreshTokenCache refreshTokenCache;
+
     private RefreshTokenService refreshTokenService;
 
     private User testUser;
@@ -37,6 +67,9 @@ class RefreshTokenServiceTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        refreshTokenCache = new RefreshTokenCache(100, 60_000, new SimpleMeterRegistry());
+        refreshTokenService = new RefreshTokenService(refreshTokenRepository, tokenIdGenerator, tokenDigester,
+                refreshTokenCache, 5);
         testUser = new User();
         testUser.setId(1);
         testUser.setEmail("test@example.com");
@@ -59,95 +92,322 @@ class RefreshTokenServiceTest {
 
     @Test
     void storeRefreshToken_shouldSaveTokenSuccessfully() {
-        String tokenId = "test-token-id";
         String tokenValue = "test-token-value";
-        LocalDateTime expiresAt = LocalDateTime.now().plusDays(7);
-
-        RefreshToken savedToken = new RefreshToken();
-        savedToken.setId(1L);
-        savedToken.setTokenId(tokenId);
-        savedToken.setUser(testUser);
+        Instant expiresAt = Instant.now().plus(7, ChronoUnit.DAYS);
 
-        when(refreshTokenRepository.findActiveTokensByUser(eq(testUser), any(LocalDateTime.class)))
-                .thenReturn(Collections.emptyList());
-        when(refreshTokenRepository.save(any(RefreshToken.class))).thenReturn(savedToken);
+        when(refreshTokenRepository.save(any(RefreshToken.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
-        RefreshToken result = refreshTokenService.storeRefreshToken(tokenId, tokenValue, testUser, expiresAt);
+        RefreshToken result = refreshTokenService.storeRefreshToken(TOKEN_ID, tokenValue, testUser, expiresAt);
 
         assertNotNull(result);
-        assertEquals(tokenId, result.getTokenId());
+        assertArrayEquals(rawTokenId(1), result.getTokenId());
+        assertArrayEquals(tokenDigester.digest(tokenValue), result.getHashedToken());
+        assertEquals(32, result.getHashedToken().length);
+        assertEquals(expiresAt, result.getExpiresAt());
         assertEquals(testUser, result.getUser());
         verify(refreshTokenRepository).save(any(RefreshToken.class));
     }
 
     @Test
-    void validateRefreshToken_withValidToken_shouldReturnToken() {
-        String tokenId = "test-token-id";
-        String tokenValue = "test-token-value";
+    void storeRefreshToken_withMalformedTokenId_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> refreshTokenService.storeRefreshToken("test-token-id",
+                "test-token-value", testUser, Instant.now().plus(7, ChronoUnit.DAYS)));
+        verifyNoInteractions(refreshTokenRepository);
+    }
 
-        RefreshToken refreshToken = new RefreshToken();
-        refreshToken.setTokenId(tokenId);
-        refreshToken.setHashedToken("hashed-value");
-        refreshToken.setUser(testUser);
-        refreshToken.setExpiresAt(LocalDateTime.now().plusDays(1));
-        refreshToken.setRevoked(false);
+    @Test
+    void storeRefreshToken_shouldCapActiveTokensWithSingleUpdate() {
+        RefreshTokenService cappedService = new RefreshTokenService(refreshTokenRepository, tokenIdGenerator,
+                tokenDigester, refreshTokenCache, 3);
+        when(refreshTokenRepository.revokeAllButNewest(eq(testUser.getId()), eq(2), any(Instant.class)))
+                .thenReturn(List.of(rawTokenId(3), rawTokenId(4)));
+
+        cappedService.storeRefreshToken(TOKEN_ID, "test-token-value", testUser, Instant.now().plus(7, ChronoUnit.DAYS));
+
+        InOrder inOrder = inOrder(refreshTokenRepository);
+        inOrder.verify(refreshTokenRepository).revokeAllButNewest(eq(testUser.getId()), eq(2), any(Instant.class));
+        inOrder.verify(refreshTokenRepository).save(any(RefreshToken.class));
+        verifyNoMoreInteractions(refreshTokenRepository);
+    }
 
-        when(refreshTokenRepository.findByTokenId(tokenId)).thenReturn(Optional.of(refreshToken));
+    @Test
+    void constructor_withCapBelowOne_shouldThrow() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new RefreshTokenService(refreshTokenRepository, tokenIdGenerator, tokenDigester,
+                        refreshTokenCache, 0));
+    }
 
-        Optional<RefreshToken> result = refreshTokenService.validateRefreshToken(tokenId, tokenValue);
+    @Test
+    void isActiveFamily_withValidToken_shouldReturnTrue() {
+        when(refreshTokenRepository.findStateByTokenId(aryEq(rawTokenId(1))))
+                .thenReturn(Optional.of(storedToken(1, "test-token-value", false)));
 
-        assertTrue(result.isEmpty());
+        assertTrue(refreshTokenService.isActiveFamily(TOKEN_ID));
     }
 
     @Test
-    void validateRefreshToken_withNonExistentToken_shouldReturnEmpty() {
-        String tokenId = "non-existent-token";
-        String tokenValue = "test-token-value";
+    void isActiveFamily_seenRecently_shouldNotQueryAgain() {
+        when(refreshTokenRepository.findStateByTokenId(aryEq(rawTokenId(1))))
+                .thenReturn(Optional.of(storedToken(1, "test-token-value", false)));
+
+        assertTrue(refreshTokenService.isActiveFamily(TOKEN_ID));
+        assertTrue(refreshTokenService.isActiveFamily(TOKEN_ID));
+
+        verify(refreshTokenRepository, times(1)).findStateByTokenId(any());
+    }
 
-        when(refreshTokenRepository.findByTokenId(tokenId)).thenReturn(Optional.empty());
+    @Test
+    void isActiveFamily_withRevokedToken_shouldCacheTheRejection() {
+        when(refreshTokenRepository.findStateByTokenId(aryEq(rawTokenId(1))))
+                .thenReturn(Optional.of(storedToken(1, "test-token-value", true)));
 
-        Optional<RefreshToken> result = refreshTokenService.validateRefreshToken(tokenId, tokenValue);
+        assertFalse(refreshTokenService.isActiveFamily(TOKEN_ID));
+        assertFalse(refreshTokenService.isActiveFamily(TOKEN_ID));
 
-        assertTrue(result.isEmpty());
+        verify(refreshTokenRepository, times(1)).findStateByTokenId(any());
     }
 
     @Test
-    void revokeRefreshToken_shouldRevokeToken() {
-        String tokenId = "test-token-id";
-        RefreshToken refreshToken = new RefreshToken();
-        refreshToken.setTokenId(tokenId);
-        refreshToken.setRevoked(false);
+    void isActiveFamily_afterRevoke_shouldQueryAgain() {
+        when(refreshTokenRepository.findStateByTokenId(aryEq(rawTokenId(1))))
+                .thenReturn(Optional.of(storedToken(1, "test-token-value", false)))
+                .thenReturn(Optional.of(storedToken(1, "test-token-value", true)));
+        when(refreshTokenRepository.revokeByTokenId(aryEq(rawTokenId(1)), any(Instant.class))).thenReturn(1);
+        assertTrue(refreshTokenService.isActiveFamily(TOKEN_ID));
 
-        when(refreshTokenRepository.findByTokenId(tokenId)).thenReturn(Optional.of(refreshToken));
-        when(refreshTokenRepository.save(any(RefreshToken.class))).thenReturn(refreshToken);
+        refreshTokenService.revokeRefreshToken(TOKEN_ID);
 
-        refreshTokenService.revokeRefreshToken(tokenId);
+        assertFalse(refreshTokenService.isActiveFamily(TOKEN_ID));
+        verify(refreshTokenRepository, times(2)).findStateByTokenId(any());
+    }
 
-        assertTrue(refreshToken.isRevoked());
-        assertNotNull(refreshToken.getRevokedAt());
-        verify(refreshTokenRepository).save(refreshToken);
+    @Test
+    void isActiveFamily_afterBulkRevocation_shouldQueryAgain() {
+        RefreshTokenState refreshToken = storedToken(1, "test-token-value", false);
+        when(refreshTokenRepository.findStateByTokenId(aryEq(rawTokenId(1)))).thenReturn(Optional.of(refreshToken));
+        when(refreshTokenRepository.revokeAllTokensForUser(eq(testUser.getId()), any(Instant.class)))
+                .thenReturn(List.of(rawTokenId(1)));
+        when(refreshTokenRepository.revokeAllButNewest(eq(testUser.getId()), eq(4), any(Instant.class)))
+                .thenReturn(List.of(rawTokenId(1)));
+        refreshTokenService.isActiveFamily(TOKEN_ID);
+
+        refreshTokenService.revokeAllTokensForUser(testUser.getId());
+        refreshTokenService.isActiveFamily(TOKEN_ID);
+        refreshTokenService.storeRefreshToken(FAMILY_ID, "new-token-value", testUser,
+                Instant.now().plus(7, ChronoUnit.DAYS));
+        refreshTokenService.isActiveFamily(TOKEN_ID);
+
+        verify(refreshTokenRepository, times(3)).findStateByTokenId(any());
     }
 
     @Test
-    void revokeAllTokensForUser_shouldRevokeAllUserTokens() {
-        int expectedRevokedCount = 3;
-        when(refreshTokenRepository.revokeAllTokensForUser(eq(testUser), any(LocalDateTime.class)))
-                .thenReturn(expectedRevokedCount);
+    void isActiveFamily_afterRotation_shouldQueryAgain() {
+        RefreshTokenState refreshToken = storedToken(2, "old-value", false);
+        when(refreshTokenRepository.findStateByTokenId(aryEq(rawTokenId(2)))).thenReturn(Optional.of(refreshToken));
+        when(refreshTokenRepository.rotateFamily(aryEq(rawTokenId(2)), eq(0), any(), any(), any(), any()))
+                .thenReturn(Optional.of(testUser.getId()));
+        refreshTokenService.isActiveFamily(FAMILY_ID);
+
+        refreshTokenService.rotateRefreshToken(FAMILY_ID, 0, "old-value", "new-value", testUser,
+                Instant.now().plus(7, ChronoUnit.DAYS));
+        refreshTokenService.isActiveFamily(FAMILY_ID);
+
+        verify(refreshTokenRepository, times(2)).findStateByTokenId(any());
+    }
+
+    @Test
+    void isActiveFamily_withExpiredToken_shouldNotCacheIt() {
+        RefreshTokenState refreshToken = new RefreshTokenState(rawTokenId(1),
+                tokenDigester.digest("test-token-value"), Instant.now().minusSeconds(1), false);
+        when(refreshTokenRepository.findStateByTokenId(aryEq(rawTokenId(1)))).thenReturn(Optional.of(refreshToken));
+
+        assertFalse(refreshTokenService.isActiveFamily(TOKEN_ID));
+        assertFalse(refreshTokenService.isActiveFamily(TOKEN_ID));
+
+        verify(refreshTokenRepository, times(2)).findStateByTokenId(any());
+    }
+
+    @Test
+    void isActiveFamily_withNonExistentToken_shouldReturnFalse() {
+        when(refreshTokenRepository.findStateByTokenId(aryEq(rawTokenId(1)))).thenReturn(Optional.empty());
+
+        assertFalse(refreshTokenService.isActiveFamily(TOKEN_ID));
+    }
 
-        refreshTokenService.revokeAllTokensForUser(testUser);
+    @Test
+    void isActiveFamily_withMalformedTokenId_shouldNotQuery() {
+        assertFalse(refreshTokenService.isActiveFamily("non-existent-token"));
+        verifyNoInteractions(refreshTokenRepository);
+    }
+
+    @Test
+    void findValidTokens_shouldReturnOnlyValidMatchingTokens() {
+        RefreshTokenState valid = storedToken(1, "valid-value", false);
+        RefreshTokenState revoked = storedToken(2, "revoked-value", true);
+        RefreshTokenState mismatched = storedToken(3, "other-value", false);
+        Map<String, String> tokens = Map.of(
+                "valid-value", tokenId(1),
+                "revoked-value", tokenId(2),
+                "mismatched-value", tokenId(3),
+                "missing-value", tokenId(4),
+                "malformed-value", "malformed-id");
+
+        when(refreshTokenRepository.findStatesByTokenIdIn(anyCollection()))
+                .thenReturn(List.of(valid, revoked, mismatched));
+
+        Set<String> result = refreshTokenService.findValidTokens(tokens);
+
+        assertEquals(Set.of("valid-value"), result);
+        verify(refreshTokenRepository).findStatesByTokenIdIn(argThat(rawTokenIds -> rawTokenIds.size() == 4));
+    }
 
-        verify(refreshTokenRepository).revokeAllTokensForUser(eq(testUser), any(LocalDateTime.class));
+    @Test
+    void findValidTokens_withTwoGenerationsOfOneFamily_shouldAcceptOnlyCurrentOne() {
+        RefreshTokenState family = storedToken(2, "current-value", false);
+        when(refreshTokenRepository.findStatesByTokenIdIn(anyCollection())).thenReturn(List.of(family));
+
+        Set<String> result = refreshTokenService.findValidTokens(Map.of(
+                "previous-value", FAMILY_ID,
+                "current-value", FAMILY_ID));
+
+        assertEquals(Set.of("current-value"), result);
+        verify(refreshTokenRepository).findStatesByTokenIdIn(argThat(rawTokenIds -> rawTokenIds.size() == 1));
     }
 
     @Test
-    void cleanupExpiredTokens_shouldDeleteExpiredTokens() {
-        int expectedDeletedCount = 5;
-        when(refreshTokenRepository.deleteExpiredTokens(any(LocalDateTime.class)))
-                .thenReturn(expectedDeletedCount);
+    void findValidTokens_seenRecently_shouldOnlyQueryMissingTokens() {
+        when(refreshTokenRepository.findStatesByTokenIdIn(anyCollection()))
+                .thenReturn(List.of(storedToken(1, "first-value", false)))
+                .thenReturn(List.of(storedToken(2, "second-value", false)));
+
+        assertEquals(Set.of("first-value"), refreshTokenService.findValidTokens(Map.of("first-value", TOKEN_ID)));
+        Set<String> result = refreshTokenService.findValidTokens(Map.of(
+                "first-value", TOKEN_ID,
+                "second-value", FAMILY_ID));
+
+        assertEquals(Set.of("first-value", "second-value"), result);
+        verify(refreshTokenRepository, times(2)).findStatesByTokenIdIn(argThat(rawTokenIds -> rawTokenIds.size() == 1));
+    }
 
-        int result = refreshTokenService.cleanupExpiredTokens();
+    @Test
+    void findValidTokens_afterRotation_shouldQueryAgain() {
+        when(refreshTokenRepository.findStatesByTokenIdIn(anyCollection()))
+                .thenReturn(List.of(storedToken(2, "old-value", false)))
+                .thenReturn(List.of(storedToken(2, "new-value", false)));
+        when(refreshTokenRepository.rotateFamily(aryEq(rawTokenId(2)), eq(0), any(), any(), any(), any()))
+                .thenReturn(Optional.of(testUser.getId()));
+        assertEquals(Set.of("old-value"), refreshTokenService.findValidTokens(Map.of("old-value", FAMILY_ID)));
+
+        refreshTokenService.rotateRefreshToken(FAMILY_ID, 0, "old-value", "new-value", testUser,
+                Instant.now().plus(7, ChronoUnit.DAYS));
+
+        assertEquals(Set.of("new-value"), refreshTokenService.findValidTokens(Map.of(
+                "old-value", FAMILY_ID,
+                "new-value", FAMILY_ID)));
+        verify(refreshTokenRepository, times(2)).findStatesByTokenIdIn(anyCollection());
+    }
+
+    @Test
+    void findValidTokens_withNoTokens_shouldNotQuery() {
+        assertTrue(refreshTokenService.findValidTokens(Map.of()).isEmpty());
+        verifyNoInteractions(refreshTokenRepository);
+    }
+
+    @Test
+    void revokeRefreshToken_shouldRevokeWithoutReading() {
+        when(refreshTokenRepository.revokeByTokenId(aryEq(rawTokenId(1)), any(Instant.class))).thenReturn(1);
+
+        refreshTokenService.revokeRefreshToken(TOKEN_ID);
+
+        verify(refreshTokenRepository).revokeByTokenId(aryEq(rawTokenId(1)), any(Instant.class));
+        verifyNoMoreInteractions(refreshTokenRepository);
+    }
+
+    @Test
+    void rotateRefreshToken_shouldUpdateFamilyInPlace() {
+        Instant expiresAt = Instant.now().plus(7, ChronoUnit.DAYS);
+        when(refreshTokenRepository.rotateFamily(aryEq(rawTokenId(2)), eq(3),
+                argThat(hashes -> hashes.stream()
+                        .anyMatch(hash -> Arrays.equals(hash, tokenDigester.digest("old-value")))),
+                aryEq(tokenDigester.digest("new-value")),
+                eq(expiresAt), any(Instant.class)))
+                .thenReturn(Optional.of(testUser.getId()));
+
+        boolean rotated = refreshTokenService.rotateRefreshToken(FAMILY_ID, 3, "old-value", "new-value", testUser,
+                expiresAt);
+
+        assertTrue(rotated);
+        verify(refreshTokenRepository).rotateFamily(aryEq(rawTokenId(2)), eq(3), any(), any(), eq(expiresAt),
+                any(Instant.class));
+        verifyNoMoreInteractions(refreshTokenRepository);
+    }
+
+    @Test
+    void rotateRefreshToken_withMalformedTokenId_shouldNotQuery() {
+        assertFalse(refreshTokenService.rotateRefreshToken("family-id", 3, "old-value", "new-value", testUser,
+                Instant.now().plus(7, ChronoUnit.DAYS)));
+        verifyNoInteractions(refreshTokenRepository);
+    }
+
+    @Test
+    void rotateRefreshToken_withUnknownToken_shouldNotRotate() {
+        when(refreshTokenRepository.rotateFamily(aryEq(rawTokenId(2)), eq(3), any(), any(), any(), any()))
+                .thenReturn(Optional.empty());
+        when(refreshTokenRepository.revokeFamilyOnReuse(aryEq(rawTokenId(2)), eq(3), any(Instant.class)))
+                .thenReturn(0);
+
+        boolean rotated = refreshTokenService.rotateRefreshToken(FAMILY_ID, 3, "old-value", "new-value", testUser,
+                Instant.now().plus(7, ChronoUnit.DAYS));
+
+        assertFalse(rotated);
+        verify(refreshTokenRepository, never()).save(any());
+    }
+
+    @Test
+    void rotateRefreshToken_withReplayedGeneration_shouldRevokeFamily() {
+        when(refreshTokenRepository.rotateFamily(aryEq(rawTokenId(2)), eq(1), any(), any(), any(), any()))
+                .thenReturn(Optional.empty());
+        when(refreshTokenRepository.revokeFamilyOnReuse(aryEq(rawTokenId(2)), eq(1), any(Instant.class)))
+                .thenReturn(1);
+
+        boolean rotated = refreshTokenService.rotateRefreshToken(FAMILY_ID, 1, "old-value", "new-value", testUser,
+                Instant.now().plus(7, ChronoUnit.DAYS));
+
+        assertFalse(rotated);
+        verify(refreshTokenRepository).revokeFamilyOnReuse(aryEq(rawTokenId(2)), eq(1), any(Instant.class));
+    }
+
+    @Test
+    void rotateRefreshToken_withTokenOfOtherUser_shouldThrow() {
+        when(refreshTokenRepository.rotateFamily(aryEq(rawTokenId(2)), eq(0), any(), any(), any(), any()))
+                .thenReturn(Optional.of(testUser.getId() + 1));
+
+        assertThrows(IllegalStateException.class, () -> refreshTokenService.rotateRefreshToken(FAMILY_ID, 0,
+                "old-value", "new-value", testUser, Instant.now().plus(7, ChronoUnit.DAYS)));
+    }
+
+    @Test
+    void revokeAllTokensForUser_shouldRevokeAllUserTokens() {
+        when(refreshTokenRepository.revokeAllTokensForUser(eq(testUser.getId()), any(Instant.class)))
+                .thenReturn(List.of(rawTokenId(1), rawTokenId(2), rawTokenId(3)));
+
+        refreshTokenService.revokeAllTokensForUser(testUser.getId());
+
+        verify(refreshTokenRepository).revokeAllTokensForUser(eq(testUser.getId()), any(Instant.class));
+    }
+
+    private RefreshTokenState storedToken(int seed, String tokenValue, boolean revoked) {
+        return new RefreshTokenState(rawTokenId(seed), tokenDigester.digest(tokenValue),
+                Instant.now().plus(1, ChronoUnit.DAYS), revoked);
+    }
+
+    private static byte[] rawTokenId(int seed) {
+        byte[] rawTokenId = new byte[32];
+        Arrays.fill(rawTokenId, (byte) seed);
+        return rawTokenId;
+    }
 
-        assertEquals(expectedDeletedCount, result);
-        verify(refreshTokenRepository).deleteExpiredTokens(any(LocalDateTime.class));
+    private static String tokenId(int seed) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(rawTokenId(seed));
     }
 }
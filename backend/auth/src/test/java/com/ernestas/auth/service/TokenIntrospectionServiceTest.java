@@ -0,0 +1,88 @@
+package com.ernestas.auth.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.ernestas.auth.util.JwtTokenUtil;
+import com.ernestas.auth.util.VerifiedToken;
+
+class TokenIntrospectionServiceTest {
+    private static final Instant EXPIRES_AT = Instant.ofEpochSecond(1_900_000_000L);
+
+    @Mock
+    private JwtTokenUtil jwtTokenUtil;
+
+    @Mock
+    private RefreshTokenService refreshTokenService;
+
+    @InjectMocks
+    private TokenIntrospectionService introspectionService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(jwtTokenUtil.verifySignature("invalid")).thenReturn(Optional.empty());
+        when(jwtTokenUtil.verifySignature("access")).thenReturn(Optional.of(
+                new VerifiedToken("access", "user@example.com", null, "User", null, null, Instant.now(), EXPIRES_AT)));
+        when(jwtTokenUtil.verifySignature("refresh-1")).thenReturn(Optional.of(refreshToken("id-1")));
+        when(jwtTokenUtil.verifySignature("refresh-2")).thenReturn(Optional.of(refreshToken("id-2")));
+    }
+
+    @Test
+    void introspect_returnsResultPerTokenInRequestOrder() {
+        when(refreshTokenService.findValidTokens(anyMap())).thenReturn(Set.of("refresh-1"));
+
+        List<TokenIntrospection> results = introspectionService
+                .introspect(List.of("access", "invalid", "refresh-1", "refresh-2"));
+
+        assertEquals(new TokenIntrospection(true, "access", "user@example.com", EXPIRES_AT.getEpochSecond()),
+                results.get(0));
+        assertEquals(TokenIntrospection.inactive(), results.get(1));
+        assertTrue(results.get(2).active());
+        assertEquals("refresh", results.get(2).type());
+        assertFalse(results.get(3).active());
+    }
+
+    @Test
+    void introspect_checksDuplicateRefreshTokensWithOneLookup() {
+        when(refreshTokenService.findValidTokens(anyMap())).thenReturn(Set.of("refresh-1", "refresh-2"));
+
+        List<TokenIntrospection> results = introspectionService
+                .introspect(List.of("refresh-1", "refresh-2", "refresh-1"));
+
+        assertTrue(results.stream().allMatch(TokenIntrospection::active));
+        verify(refreshTokenService).findValidTokens(Map.of("refresh-1", "id-1", "refresh-2", "id-2"));
+    }
+
+    @Test
+    void introspect_withTwoGenerationsOfOneFamily_reportsCurrentOneActive() {
+        when(jwtTokenUtil.verifySignature("refresh-1-old")).thenReturn(Optional.of(refreshToken("id-1")));
+        when(refreshTokenService.findValidTokens(anyMap())).thenReturn(Set.of("refresh-1"));
+
+        List<TokenIntrospection> results = introspectionService.introspect(List.of("refresh-1-old", "refresh-1"));
+
+        assertFalse(results.get(0).active());
+        assertTrue(results.get(1).active());
+        verify(refreshTokenService).findValidTokens(Map.of("refresh-1-old", "id-1", "refresh-1", "id-1"));
+    }
+
+    private static VerifiedToken refreshToken(String tokenId) {
+        return new VerifiedToken("refresh", "user@example.com", null, null, tokenId, null, Instant.now(), EXPIRES_AT);
+    }
+}
@@ -0,0 +1,100 @@
+package com.ernestas.auth.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ernestas.auth.model.User;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class UserCacheTest {
+    private SimpleMeterRegistry meterRegistry;
+    private UserCache cache;
+    private AtomicInteger loads;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new UserCache(10, 60_000, meterRegistry);
+        loads = new AtomicInteger();
+        user = new User();
+        user.setId(7);
+        user.setEmail("user@example.com");
+        user.setName("User");
+    }
+
+    @Test
+    void getByEmail_afterLoad_returnsCopiesWithoutReloading() {
+        User first = cache.getByEmail("user@example.com", email -> load(user)).orElseThrow();
+        first.setName("Changed");
+        User second = cache.getByEmail("user@example.com", email -> load(user)).orElseThrow();
+
+        assertNotSame(user, first);
+        assertEquals("User", second.getName());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void getById_afterEmailLoad_isCached() {
+        cache.getByEmail("user@example.com", email -> load(user));
+
+        assertEquals("user@example.com", cache.getById(7, id -> load(user)).orElseThrow().getEmail());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void getByEmail_unknownUser_isNotCached() {
+        assertTrue(cache.getByEmail("user@example.com", email -> load(null)).isEmpty());
+        assertTrue(cache.getByEmail("user@example.com", email -> load(null)).isEmpty());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void put_replacesBothKeys() {
+        cache.getByEmail("user@example.com", email -> load(user));
+        User renamed = new User();
+        renamed.setId(7);
+        renamed.setEmail("user@example.com");
+        renamed.setName("Renamed");
+
+        cache.put(renamed);
+
+        assertEquals("Renamed", cache.getByEmail("user@example.com", email -> load(user)).orElseThrow().getName());
+        assertEquals("Renamed", cache.getById(7, id -> load(user)).orElseThrow().getName());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void invalidate_forcesReload() {
+        cache.getByEmail("user@example.com", email -> load(user));
+
+        cache.invalidate(user);
+        cache.getById(7, id -> load(user));
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void get_recordsHitsPerKey() {
+        cache.getByEmail("user@example.com", email -> load(user));
+        cache.getByEmail("user@example.com", email -> load(user));
+
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "users").tag("key", "email")
+                .tag("result", "hit").functionCounter().count());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "users").tag("key", "email")
+                .tag("result", "miss").functionCounter().count());
+    }
+
+    private Optional<User> load(User loaded) {
+        loads.incrementAndGet();
+        return Optional.ofNullable(loaded);
+    }
+}
@@ -3,7 +3,12 @@ package com.ernestas.auth.service;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 import java.util.Optional;
@@ -13,19 +18,29 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 
 import com.ernestas.auth.model.User;
 import com.ernestas.auth.repository.UserRepository;
+import com.ernestas.auth.security.AccessTokenDenylist;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 class UserServiceTest {
 
     @Mock
     private UserRepository userRepository;
 
+    @Spy
+    private UserCache userCache = new UserCache(100, 60_000, new SimpleMeterRegistry());
+
     @Mock
     private RefreshTokenService refreshTokenService;
 
+    @Mock
+    private AccessTokenDenylist accessTokenDenylist;
+
     @Mock
     private OAuth2User oAuth2User;
 
@@ -43,31 +58,63 @@ class UserServiceTest {
     void registerOrUpdateUserNewUser() {
         when(oAuth2User.getAttribute("email")).thenReturn("test@example.com");
         when(oAuth2User.getAttribute("name")).thenReturn("Test User");
-        when(userRepository.findByEmail("test@example.com")).thenReturn(Optional.empty());
-        when(userRepository.save(any(User.class))).thenAnswer(i -> i.getArgument(0));
+        when(userRepository.upsertByEmail("test@example.com", "Test User")).thenReturn(Optional.of(51));
 
         User user = userService.registerOrUpdateUser(oAuth2User);
 
+        assertEquals(51, user.getId());
         assertEquals("test@example.com", user.getEmail());
         assertEquals("Test User", user.getName());
-        verify(userRepository).save(any(User.class));
+        verify(userRepository).upsertByEmail("test@example.com", "Test User");
+        verify(userRepository, never()).findByEmail(anyString());
+        verify(userRepository, never()).save(any(User.class));
     }
 
     @Test
     void registerOrUpdateUserExistingUser() {
-        User existingUser = new User();
-        existingUser.setEmail("existing@example.com");
-        existingUser.setName("Old Name");
         when(oAuth2User.getAttribute("email")).thenReturn("existing@example.com");
         when(oAuth2User.getAttribute("name")).thenReturn("New Name");
-        when(userRepository.findByEmail("existing@example.com")).thenReturn(Optional.of(existingUser));
-        when(userRepository.save(any(User.class))).thenAnswer(i -> i.getArgument(0));
+        when(userRepository.upsertByEmail("existing@example.com", "New Name")).thenReturn(Optional.of(7));
 
         User user = userService.registerOrUpdateUser(oAuth2User);
 
+        assertEquals(7, user.getId());
         assertEquals("existing@example.com", user.getEmail());
         assertEquals("New Name", user.getName());
-        verify(userRepository).save(existingUser);
+        verify(userRepository).upsertByEmail("existing@example.com", "New Name");
+        verify(userRepository, never()).save(any(User.class));
+    }
+
+    @Test
+    void registerOrUpdateUserWithoutEmailThrows() {
+        when(oAuth2User.getAttribute("name")).thenReturn("Test User");
+
+        assertThrows(IllegalArgumentException.class, () -> userService.registerOrUpdateUser(oAuth2User));
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    void registerOrUpdateUserRegisteredConcurrentlyRetriesOnce() {
+        when(oAuth2User.getAttribute("email")).thenReturn("test@example.com");
+        when(oAuth2User.getAttribute("name")).thenReturn("Test User");
+        when(userRepository.upsertByEmail("test@example.com", "Test User"))
+                .thenReturn(Optional.empty())
+                .thenReturn(Optional.of(51));
+
+        User user = userService.registerOrUpdateUser(oAuth2User);
+
+        assertEquals(51, user.getId());
+        verify(userRepository, times(2)).upsertByEmail("test@example.com", "Test User");
+    }
+
+    @Test
+    void registerOrUpdateUserNotRegisteredThrows() {
+        when(oAuth2User.getAttribute("email")).thenReturn("test@example.com");
+        when(oAuth2User.getAttribute("name")).thenReturn("Test User");
+        when(userRepository.upsertByEmail("test@example.com", "Test User")).thenReturn(Optional.empty());
+
+        assertThrows(IllegalStateException.class, () -> userService.registerOrUpdateUser(oAuth2User));
+        verify(userRepository, times(2)).upsertByEmail("test@example.com", "Test User");
     }
 
     @Test
@@ -87,4 +134,83 @@ class UserServiceTest {
                 () -> userService.findUserByEmail("notfound@example.com"));
         assertEquals("User not found", exception.getMessage());
     }
+
+    @Test
+    void findUserByIdUserFound() {
+        User user = new User();
+        user.setId(7);
+        user.setEmail("found@example.com");
+        when(userRepository.findById(7)).thenReturn(Optional.of(user));
+
+        User result = userService.findUserById(7);
+        assertEquals("found@example.com", result.getEmail());
+    }
+
+    @Test
+    void findUserByIdUserNotFound() {
+        when(userRepository.findById(7)).thenReturn(Optional.empty());
+        RuntimeException exception = assertThrows(RuntimeException.class,
+                () -> userService.findUserById(7));
+        assertEquals("User not found", exception.getMessage());
+    }
+
+    @Test
+    void findUserByEmailSeenRecentlyDoesNotQueryAgain() {
+        User user = new User();
+        user.setId(7);
+        user.setEmail("found@example.com");
+        when(userRepository.findByEmail("found@example.com")).thenReturn(Optional.of(user));
+
+        userService.findUserByEmail("found@example.com");
+        User result = userService.findUserByEmail("found@example.com");
+
+        assertEquals("found@example.com", result.getEmail());
+        verify(userRepository, times(1)).findByEmail("found@example.com");
+    }
+
+    @Test
+    void findUserByIdAfterEmailLookupDoesNotQuery() {
+        User user = new User();
+        user.setId(7);
+        user.setEmail("found@example.com");
+        when(userRepository.findByEmail("found@example.com")).thenReturn(Optional.of(user));
+
+        userService.findUserByEmail("found@example.com");
+        User result = userService.findUserById(7);
+
+        assertEquals("found@example.com", result.getEmail());
+        verify(userRepository, never()).findById(anyInt());
+    }
+
+    @Test
+    void registerOrUpdateUserWritesThroughToCache() {
+        User existingUser = new User();
+        existingUser.setId(7);
+        existingUser.setEmail("existing@example.com");
+        existingUser.setName("Old Name");
+        when(userRepository.findByEmail("existing@example.com")).thenReturn(Optional.of(existingUser));
+        when(userRepository.upsertByEmail("existing@example.com", "New Name")).thenReturn(Optional.of(7));
+        when(oAuth2User.getAttribute("email")).thenReturn("existing@example.com");
+        when(oAuth2User.getAttribute("name")).thenReturn("New Name");
+        userService.findUserByEmail("existing@example.com");
+
+        userService.registerOrUpdateUser(oAuth2User);
+
+        assertEquals("New Name", userService.findUserByEmail("existing@example.com").getName());
+        assertEquals("New Name", userService.findUserById(7).getName());
+        verify(userRepository, times(1)).findByEmail("existing@example.com");
+        verify(userRepository, never()).findById(anyInt());
+    }
+
+    @Test
+    void revokeAllUserTokensRevokesRefreshAndAccessTokens() {
+        User user = new User();
+        user.setId(7);
+        user.setEmail("user@example.com");
+
+        userService.revokeAllUserTokens(user);
+
+        verify(refreshTokenService).revokeAllTokensForUser(7);
+        verify(accessTokenDenylist).revoke(7, "user@example.com");
+    }
 }
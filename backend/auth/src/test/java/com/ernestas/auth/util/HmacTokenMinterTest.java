@@ -0,0 +1,126 @@
+package com.ernestas.auth.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import javax.crypto.SecretKey;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+
+class HmacTokenMinterTest {
+    private static final long ISSUED_AT = 1_700_000_000L;
+    private static final long EXPIRES_AT = ISSUED_AT + 900;
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "Test User",
+            "Jürgen Groß",
+            "名前 😀",
+            "quote \" backslash \\ slash /",
+            "tab\tnewline\ncontrol\u0001\u001f",
+            "lone \uD800 surrogate",
+            "" })
+    void sign_matchesJjwtOutput(String name) {
+        SecretKey key = key("my-very-secret-key-which-is-long-enough-for-hmac");
+
+        String expected = Jwts.builder()
+                .subject("user@example.com")
+                .claim("type", "access")
+                .claim("name", name)
+                .issuedAt(new Date(ISSUED_AT * 1000))
+                .expiration(new Date(EXPIRES_AT * 1000))
+                .signWith(key)
+                .compact();
+
+        String actual = new HmacTokenMinter(key).begin()
+                .claim("sub", "user@example.com")
+                .claim("type", "access")
+                .claim("name", name)
+                .claim("iat", ISSUED_AT)
+                .claim("exp", EXPIRES_AT)
+                .sign();
+
+        assertEquals(expected, actual);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 32, 48, 64 })
+    void sign_matchesJjwtOutputForEveryHmacStrength(int keyLength) {
+        SecretKey key = key("k".repeat(keyLength));
+
+        String expected = Jwts.builder()
+                .subject("42")
+                .claim("t", "r")
+                .id("Wq75Y5KjtGf4OJxg3P_hzg")
+                .issuedAt(new Date(ISSUED_AT * 1000))
+                .expiration(new Date(EXPIRES_AT * 1000))
+                .signWith(key)
+                .compact();
+
+        HmacTokenMinter minter = new HmacTokenMinter(key);
+        String actual = null;
+        // Reused per-thread buffers must not leak state between tokens
+        for (int i = 0; i < 3; i++) {
+            actual = minter.begin()
+                    .claim("sub", "42")
+                    .claim("t", "r")
+                    .claim("jti", "Wq75Y5KjtGf4OJxg3P_hzg")
+                    .claim("iat", ISSUED_AT)
+                    .claim("exp", EXPIRES_AT)
+                    .sign();
+        }
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void sign_skipsNullClaimsLikeJjwt() {
+        SecretKey key = key("my-very-secret-key-which-is-long-enough-for-hmac");
+
+        String expected = Jwts.builder()
+                .subject("user@example.com")
+                .claim("name", null)
+                .issuedAt(new Date(ISSUED_AT * 1000))
+                .signWith(key)
+                .compact();
+
+        String actual = new HmacTokenMinter(key).begin()
+                .claim("sub", "user@example.com")
+                .claim("name", null)
+                .claim("iat", ISSUED_AT)
+                .sign();
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void sign_growsBuffersForLargeClaims() {
+        SecretKey key = key("my-very-secret-key-which-is-long-enough-for-hmac");
+        String name = "x".repeat(2000);
+
+        String expected = Jwts.builder()
+                .claim("name", name)
+                .signWith(key)
+                .compact();
+
+        assertEquals(expected, new HmacTokenMinter(key).begin().claim("name", name).sign());
+    }
+
+    @Test
+    void constructor_rejectsNonHmacKey() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new HmacTokenMinter(Jwts.SIG.ES256.keyPair().build().getPrivate()));
+    }
+
+    private static SecretKey key(String secret) {
+        return Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+    }
+}
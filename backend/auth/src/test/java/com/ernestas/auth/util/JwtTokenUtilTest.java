@@ -1,15 +1,21 @@
 package com.ernestas.auth.util;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.time.Instant;
+import java.util.Base64;
 import java.util.Optional;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -17,22 +23,32 @@ import org.junit.jupiter.api.Test;
 
 import com.ernestas.auth.model.RefreshToken;
 import com.ernestas.auth.model.User;
+import com.ernestas.auth.security.AccessTokenCache;
+import com.ernestas.auth.security.AccessTokenDenylist;
+import com.ernestas.auth.security.JwtKeyProvider;
 import com.ernestas.auth.service.RefreshTokenService;
 
 import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 class JwtTokenUtilTest {
     private JwtTokenUtil jwtTokenUtil;
     private User user;
     private RefreshTokenService refreshTokenService;
+    private AccessTokenCache accessTokenCache;
+    private AccessTokenDenylist accessTokenDenylist;
+    private SimpleMeterRegistry meterRegistry;
 
     @BeforeEach
     void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        accessTokenDenylist = mock(AccessTokenDenylist.class);
         refreshTokenService = mock(RefreshTokenService.class);
-        jwtTokenUtil = new JwtTokenUtil("my-very-secret-key-which-is-long-enough-for-hmac", 1000 * 60 * 15,
-                1000 * 60 * 60 * 24 * 7, refreshTokenService);
-        jwtTokenUtil.init();
+        accessTokenCache = new AccessTokenCache(100, new SimpleMeterRegistry());
+        jwtTokenUtil = createJwtTokenUtil("HS256", accessTokenCache);
         user = new User();
+        user.setId(42);
         user.setEmail("test@example.com");
         user.setName("Test User");
 
@@ -45,28 +61,71 @@ class JwtTokenUtilTest {
     void testGenerateAndValidateAccessToken() {
         String token = jwtTokenUtil.generateAccessToken(user);
         assertNotNull(token);
-        assertTrue(jwtTokenUtil.validateToken(token, "access"));
-        assertEquals("access", jwtTokenUtil.getTokenType(token));
-        assertEquals(user.getEmail(), jwtTokenUtil.getUsernameFromToken(token));
+        VerifiedToken verified = jwtTokenUtil.verifyAccessToken(token).orElseThrow();
+        assertEquals("access", verified.type());
+        assertEquals(user.getEmail(), verified.email());
     }
 
     @Test
-    void testGenerateAndValidateRefreshToken() {
-        RefreshToken refreshToken = new RefreshToken();
-        when(refreshTokenService.validateRefreshToken(eq("test-token-id"), anyString()))
-                .thenReturn(Optional.of(refreshToken));
-
+    void testGenerateAndVerifyRefreshToken() {
         String token = jwtTokenUtil.generateRefreshToken(user);
         assertNotNull(token);
-        assertTrue(jwtTokenUtil.validateToken(token, "refresh"));
-        assertEquals("refresh", jwtTokenUtil.getTokenType(token));
-        assertEquals(user.getEmail(), jwtTokenUtil.getUsernameFromToken(token));
+        VerifiedToken verified = jwtTokenUtil.verifySignature(token).orElseThrow();
+        assertEquals("refresh", verified.type());
+        assertEquals(user.getEmail(), verified.email());
+        verify(refreshTokenService).storeRefreshToken(eq("test-token-id"), eq(token), eq(user), any());
     }
 
     @Test
-    void testValidateTokenWithWrongType() {
-        String token = jwtTokenUtil.generateAccessToken(user);
-        assertFalse(jwtTokenUtil.validateToken(token, "refresh"));
+    void testGenerateRefreshToken_StartsFamilyAtGenerationZero() {
+        String token = jwtTokenUtil.generateRefreshToken(user);
+
+        VerifiedToken verified = jwtTokenUtil.verifySignature(token).orElseThrow();
+        assertEquals("test-token-id", verified.tokenId());
+        assertEquals(0, verified.generation());
+        assertEquals(42, verified.userId());
+    }
+
+    @Test
+    void testRotateRefreshToken_ReturnsNextGenerationOfFamily() {
+        VerifiedToken presented = new VerifiedToken("refresh", user.getEmail(), null, null, "family-id", 2,
+                Instant.now(), Instant.now().plusSeconds(60));
+        when(refreshTokenService.rotateRefreshToken(eq("family-id"), eq(2), eq("old.token"), anyString(), eq(user),
+                any())).thenReturn(true);
+
+        String successor = jwtTokenUtil.rotateRefreshToken(presented, "old.token", user).orElseThrow();
+
+        VerifiedToken verified = jwtTokenUtil.verifySignature(successor).orElseThrow();
+        assertEquals("family-id", verified.tokenId());
+        assertEquals(3, verified.generation());
+        verify(refreshTokenService).rotateRefreshToken(eq("family-id"), eq(2), eq("old.token"), eq(successor),
+                eq(user), any());
+        verify(refreshTokenService, never()).generateTokenId();
+        verify(refreshTokenService, never()).storeRefreshToken(anyString(), anyString(), any(), any());
+    }
+
+    @Test
+    void testRotateRefreshToken_CompactTokenWithoutGeneration_RotatesFromZero() {
+        JwtTokenUtil compactTokenUtil = createJwtTokenUtil("HS256", TokenProfile.COMPACT,
+                new AccessTokenCache(100, new SimpleMeterRegistry()));
+        VerifiedToken presented = new VerifiedToken("refresh", null, user.getId(), null, "family-id", null,
+                Instant.now(), Instant.now().plusSeconds(60));
+        when(refreshTokenService.rotateRefreshToken(eq("family-id"), eq(0), eq("old.token"), anyString(), eq(user),
+                any())).thenReturn(true);
+
+        String successor = compactTokenUtil.rotateRefreshToken(presented, "old.token", user).orElseThrow();
+
+        assertEquals(1, compactTokenUtil.verifySignature(successor).orElseThrow().generation());
+    }
+
+    @Test
+    void testRotateRefreshToken_AlreadyRotated_ReturnsEmpty() {
+        VerifiedToken presented = new VerifiedToken("refresh", user.getEmail(), null, null, "family-id", 2,
+                Instant.now(), Instant.now().plusSeconds(60));
+        when(refreshTokenService.rotateRefreshToken(anyString(), anyInt(), anyString(), anyString(), any(), any()))
+                .thenReturn(false);
+
+        assertTrue(jwtTokenUtil.rotateRefreshToken(presented, "old.token", user).isEmpty());
     }
 
     @Test
@@ -79,7 +138,133 @@ class JwtTokenUtilTest {
     }
 
     @Test
-    void testValidateInvalidToken() {
-        assertFalse(jwtTokenUtil.validateToken("invalid.token.value", "access"));
+    void testVerifyAccessToken_ReturnsAllClaimsFromSingleParse() {
+        String token = jwtTokenUtil.generateAccessToken(user);
+
+        Optional<VerifiedToken> verified = jwtTokenUtil.verifyAccessToken(token);
+
+        assertTrue(verified.isPresent());
+        assertEquals("access", verified.get().type());
+        assertEquals(user.getEmail(), verified.get().email());
+        assertEquals(user.getName(), verified.get().name());
+        assertEquals(42, verified.get().userId());
+        assertNull(verified.get().tokenId());
+        assertTrue(verified.get().expiresAt().isAfter(verified.get().issuedAt()));
+    }
+
+    @Test
+    void testVerifyAccessToken_CachesVerifiedToken() {
+        String token = jwtTokenUtil.generateAccessToken(user);
+
+        VerifiedToken first = jwtTokenUtil.verifyAccessToken(token).orElseThrow();
+        VerifiedToken second = jwtTokenUtil.verifyAccessToken(token).orElseThrow();
+
+        assertEquals(1, accessTokenCache.size());
+        assertSame(first, second);
+    }
+
+    @Test
+    void testVerifyAccessToken_WithRefreshToken_ReturnsEmpty() {
+        String token = jwtTokenUtil.generateRefreshToken(user);
+        assertTrue(jwtTokenUtil.verifyAccessToken(token).isEmpty());
+    }
+
+    @Test
+    void testAsymmetricAccessToken_HasKeyIdAndVerifies() {
+        JwtTokenUtil esTokenUtil = createJwtTokenUtil("ES256", new AccessTokenCache(100, new SimpleMeterRegistry()));
+        String token = esTokenUtil.generateAccessToken(user);
+
+        String header = new String(Base64.getUrlDecoder().decode(token.substring(0, token.indexOf('.'))));
+        assertTrue(header.contains("\"kid\":"));
+        assertTrue(esTokenUtil.verifyAccessToken(token).isPresent());
+        assertTrue(jwtTokenUtil.verifyAccessToken(token).isEmpty());
+    }
+
+    @Test
+    void testCompactProfile_IssuesShorterTokensIdentifiedByUserId() {
+        JwtTokenUtil compactTokenUtil = createJwtTokenUtil("HS256", TokenProfile.COMPACT,
+                new AccessTokenCache(100, new SimpleMeterRegistry()));
+
+        String compactAccess = compactTokenUtil.generateAccessToken(user);
+        String compactRefresh = compactTokenUtil.generateRefreshToken(user);
+
+        assertTrue(compactAccess.length() < jwtTokenUtil.generateAccessToken(user).length());
+        assertTrue(compactRefresh.length() < jwtTokenUtil.generateRefreshToken(user).length());
+
+        VerifiedToken access = compactTokenUtil.verifyAccessToken(compactAccess).orElseThrow();
+        assertEquals(42, access.userId());
+        assertNull(access.email());
+        assertNull(access.name());
+
+        VerifiedToken refresh = compactTokenUtil.verifySignature(compactRefresh).orElseThrow();
+        assertEquals("refresh", refresh.type());
+        assertEquals(42, refresh.userId());
+        assertEquals("test-token-id", refresh.tokenId());
+        assertTrue(compactTokenUtil.verifyAccessToken(compactRefresh).isEmpty());
+    }
+
+    @Test
+    void testGenerateAccessToken_RecordsTokenSize() {
+        String token = jwtTokenUtil.generateAccessToken(user);
+
+        DistributionSummary summary = meterRegistry.get("auth.token.size")
+                .tag("type", "access")
+                .tag("profile", "standard")
+                .summary();
+        assertEquals(1, summary.count());
+        assertEquals(token.length(), summary.totalAmount());
+    }
+
+    @Test
+    void testVerifySignature_AcceptsRefreshTokenWithoutDatabaseCheck() {
+        String token = jwtTokenUtil.generateRefreshToken(user);
+
+        Optional<VerifiedToken> verified = jwtTokenUtil.verifySignature(token);
+
+        assertTrue(verified.isPresent());
+        assertEquals("refresh", verified.get().type());
+        assertEquals("test-token-id", verified.get().tokenId());
+        verify(refreshTokenService, never()).rotateRefreshToken(anyString(), anyInt(), anyString(), anyString(),
+                any(), any());
+    }
+
+    @Test
+    void testVerifySignature_LeavesRefreshTokensOutOfAccessTokenCache() {
+        String token = jwtTokenUtil.generateRefreshToken(user);
+
+        assertTrue(jwtTokenUtil.verifySignature(token).isPresent());
+        assertTrue(jwtTokenUtil.verifyAccessToken(token).isEmpty());
+
+        assertEquals(0, accessTokenCache.size());
+    }
+
+    @Test
+    void testVerifyAccessToken_RejectsRevokedTokenEvenWhenCached() {
+        String token = jwtTokenUtil.generateAccessToken(user);
+        assertTrue(jwtTokenUtil.verifyAccessToken(token).isPresent());
+
+        when(accessTokenDenylist.isRevoked(any(VerifiedToken.class))).thenReturn(true);
+
+        assertTrue(jwtTokenUtil.verifyAccessToken(token).isEmpty());
+        assertTrue(jwtTokenUtil.verifySignature(token).isEmpty());
+    }
+
+    @Test
+    void testVerifyInvalidToken() {
+        assertTrue(jwtTokenUtil.verifyAccessToken("invalid.token.value").isEmpty());
+    }
+
+    private JwtTokenUtil createJwtTokenUtil(String algorithm, AccessTokenCache cache) {
+        return createJwtTokenUtil(algorithm, TokenProfile.STANDARD, cache);
+    }
+
+    private JwtTokenUtil createJwtTokenUtil(String algorithm, TokenProfile profile, AccessTokenCache cache) {
+        JwtKeyProvider keyProvider = new JwtKeyProvider("my-very-secret-key-which-is-long-enough-for-hmac",
+                algorithm, "", "", "", "", "", "", "", "", "", "", 1000 * 60 * 60 * 24 * 7, 300, "dev");
+        keyProvider.init();
+        JwtTokenUtil tokenUtil = new JwtTokenUtil(keyProvider, 1000 * 60 * 15, 1000 * 60 * 60 * 24 * 7,
+                profile, refreshTokenService, cache, accessTokenDenylist, meterRegistry);
+        tokenUtil.init();
+        return tokenUtil;
     }
 }
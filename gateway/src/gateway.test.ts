@@ -1,5 +1,7 @@
 import { afterEach, describe, expect, it, vi } from "vitest";
+import jwt from "jsonwebtoken";
 import { startGateway, validateAccessToken } from "./gateway.js";
+import { TokenVerifier } from "./tokens.js";
 
 global.fetch = vi.fn();
 
@@ -113,19 +115,50 @@ describe("gateway", () => {
 
 	describe("validateAccessToken", () => {
 		const testSecret = "test-jwt-secret";
+		const verifier = new TokenVerifier({
+			jwksUrl: "http://localhost:5000/.well-known/jwks.json",
+			hmacSecret: testSecret,
+		});
+
+		it("should return false for invalid token", async () => {
+			const result = await validateAccessToken("invalid-token", verifier);
+			expect(result).toBe(false);
+		});
 
-		it("should return false for invalid token", () => {
-			const result = validateAccessToken("invalid-token", testSecret);
+		it("should return false for empty token", async () => {
+			const result = await validateAccessToken("", verifier);
 			expect(result).toBe(false);
 		});
 
-		it("should return false for empty token", () => {
-			const result = validateAccessToken("", testSecret);
+		it("should return false for token with wrong type", async () => {
+			const token = jwt.sign({ sub: "user@example.com", type: "refresh" }, testSecret, {
+				expiresIn: 60,
+			});
+			const result = await validateAccessToken(token, verifier);
 			expect(result).toBe(false);
 		});
 
-		it("should return false for token with wrong type", () => {
-			const result = validateAccessToken("wrong.type.token", testSecret);
+		it("should return true for a valid access token", async () => {
+			const token = jwt.sign({ sub: "user@example.com", type: "access" }, testSecret, {
+				expiresIn: 60,
+			});
+			const result = await validateAccessToken(token, verifier);
+			expect(result).toBe(true);
+		});
+
+		it("should return true for a valid compact access token", async () => {
+			const token = jwt.sign({ sub: "42", t: "a" }, testSecret, {
+				expiresIn: 60,
+			});
+			const result = await validateAccessToken(token, verifier);
+			expect(result).toBe(true);
+		});
+
+		it("should return false for a compact refresh token", async () => {
+			const token = jwt.sign({ sub: "42", t: "r", jti: "token-id" }, testSecret, {
+				expiresIn: 60,
+			});
+			const result = await validateAccessToken(token, verifier);
 			expect(result).toBe(false);
 		});
 	});
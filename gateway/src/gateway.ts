@@ -10,7 +10,6 @@ import * as Sentry from "@sentry/node";
 import cookieParser from "cookie-parser";
 import cors from "cors";
 import express from "express";
-import jwt from "jsonwebtoken";
 import { z } from "zod";
 import "./instrument.ts";
 import logger, {
@@ -18,26 +17,31 @@ import logger, {
 	createContextLogger,
 	generateRequestId,
 } from "./logger.ts";
+import { TokenVerifier, tokenType, tokenUserId } from "./tokens.ts";
 import "./types.ts";
 
 /**
  * Validates a JWT access token.
  *
  * @param token - The JWT token to validate
- * @param secret - The secret key used to sign the token
+ * @param verifier - The verifier of the auth service's token signatures
  * @returns boolean - True if the token is valid and is an access token
  */
-function validateAccessToken(token: string, secret: string): boolean {
+async function validateAccessToken(
+	token: string,
+	verifier: TokenVerifier
+): Promise<boolean> {
 	const contextLogger = createContextLogger({
 		operation: "validateAccessToken",
 	});
 
 	try {
-		const decoded = jwt.verify(token, secret) as jwt.JwtPayload;
+		const decoded = await verifier.verify(token);
 
-		if (decoded.type !== "access") {
+		const type = tokenType(decoded);
+		if (type !== "access") {
 			contextLogger.warn("Token validation failed: invalid token type", {
-				tokenType: decoded.type,
+				tokenType: type,
 			});
 			return false;
 		}
@@ -53,7 +57,7 @@ function validateAccessToken(token: string, secret: string): boolean {
 		}
 
 		contextLogger.debug("Token validation successful", {
-			userId: decoded.sub,
+			userId: tokenUserId(decoded),
 		});
 		return true;
 	} catch (error) {
@@ -122,7 +126,14 @@ function getEnv() {
 		AUTH_REDIRECT_URL: z.string().url(),
 		GATEWAY_SECRET: z.string(),
 		FRONTEND_DOMAIN: z.string().url(),
-		JWT_SECRET: z.string().min(1, "JWT secret is required"),
+		JWT_SECRET: z.string().optional(),
+		JWT_HMAC_ACCEPTED_UNTIL: z
+			.string()
+			.optional()
+			.transform((value) => (value ? new Date(value) : undefined))
+			.refine((date) => !date || !Number.isNaN(date.getTime()), {
+				message: "JWT_HMAC_ACCEPTED_UNTIL must be an ISO-8601 instant",
+			}),
 		NODE_ENV: z.string().default("development"),
 		DOMAIN: z.string().default("localhost"),
 	});
@@ -148,6 +159,12 @@ function getEnv() {
 
 const env = getEnv();
 
+const tokenVerifier = new TokenVerifier({
+	jwksUrl: new URL("/.well-known/jwks.json", env.AUTH_URL).toString(),
+	hmacSecret: env.JWT_SECRET || undefined,
+	hmacAcceptedUntil: env.JWT_HMAC_ACCEPTED_UNTIL,
+});
+
 const waitForService = async (
 	url: string,
 	retries = 20,
@@ -340,7 +357,7 @@ const startGateway = async () => {
 			return res.redirect(env.AUTH_REDIRECT_URL + req.originalUrl);
 		});
 
-		app.use("/graphql", ((req, res, next) => {
+		app.use("/graphql", (async (req, res, next) => {
 			if (env.NODE_ENV !== "production") {
 				// it's useful to codegen the schema from introspection or test out queries in playground in development
 				next();
@@ -389,7 +406,9 @@ const startGateway = async () => {
 							});
 						}
 
-						if (!validateAccessToken(accessToken, env.JWT_SECRET)) {
+						if (
+							!(await validateAccessToken(accessToken, tokenVerifier))
+						) {
 							requestLogger.warn(
 								"Access token validation failed",
 								{
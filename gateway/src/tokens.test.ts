@@ -0,0 +1,215 @@
+import { generateKeyPairSync, sign, type KeyObject } from "node:crypto";
+import jwt from "jsonwebtoken";
+import { afterEach, beforeEach, describe, expect, it, vi } from "vitest";
+import { TokenVerifier, tokenType, tokenUserId } from "./tokens.js";
+
+const JWKS_URL = "http://auth:8080/.well-known/jwks.json";
+const SECRET = "test-jwt-secret";
+
+const ecKeys = generateKeyPairSync("ec", { namedCurve: "P-256" });
+const edKeys = generateKeyPairSync("ed25519");
+
+function publicJwk(publicKey: KeyObject, kid: string, alg: string) {
+	return { ...publicKey.export({ format: "jwk" }), kid, alg, use: "sig" };
+}
+
+function signToken(
+	privateKey: KeyObject,
+	kid: string,
+	alg: string,
+	claims: Record<string, unknown>
+): string {
+	const encode = (value: object) =>
+		Buffer.from(JSON.stringify(value)).toString("base64url");
+	const data = `${encode({ kid, alg })}.${encode(claims)}`;
+	const signature =
+		alg === "ES256"
+			? sign("sha256", Buffer.from(data), {
+					key: privateKey,
+					dsaEncoding: "ieee-p1363",
+			  })
+			: sign(null, Buffer.from(data), privateKey);
+	return `${data}.${signature.toString("base64url")}`;
+}
+
+function accessClaims(expiresInSeconds = 60) {
+	return {
+		sub: "user@example.com",
+		type: "access",
+		exp: Math.floor(Date.now() / 1000) + expiresInSeconds,
+	};
+}
+
+function jwksResponse(keys: object[]) {
+	return {
+		ok: true,
+		status: 200,
+		headers: new Headers({ "cache-control": "max-age=300, public" }),
+		json: async () => ({ keys }),
+	} as unknown as Response;
+}
+
+describe("TokenVerifier", () => {
+	const fetchMock = vi.fn();
+
+	beforeEach(() => {
+		vi.stubGlobal("fetch", fetchMock);
+		fetchMock.mockResolvedValue(
+			jwksResponse([
+				publicJwk(ecKeys.publicKey, "es-key", "ES256"),
+				publicJwk(edKeys.publicKey, "ed-key", "EdDSA"),
+			])
+		);
+	});
+
+	afterEach(() => {
+		vi.unstubAllGlobals();
+		fetchMock.mockReset();
+	});
+
+	it("should verify ES256 and EdDSA tokens by their kid", async () => {
+		const verifier = new TokenVerifier({ jwksUrl: JWKS_URL });
+
+		const es = await verifier.verify(
+			signToken(ecKeys.privateKey, "es-key", "ES256", accessClaims())
+		);
+		const ed = await verifier.verify(
+			signToken(edKeys.privateKey, "ed-key", "EdDSA", accessClaims())
+		);
+
+		expect(es.type).toBe("access");
+		expect(ed.sub).toBe("user@example.com");
+		expect(fetchMock).toHaveBeenCalledTimes(1);
+		expect(fetchMock).toHaveBeenCalledWith(JWKS_URL);
+	});
+
+	it("should reject a token with a tampered payload", async () => {
+		const verifier = new TokenVerifier({ jwksUrl: JWKS_URL });
+		const [header, , signature] = signToken(
+			ecKeys.privateKey,
+			"es-key",
+			"ES256",
+			accessClaims()
+		).split(".");
+		const payload = Buffer.from(
+			JSON.stringify({ ...accessClaims(), sub: "other@example.com" })
+		).toString("base64url");
+
+		await expect(
+			verifier.verify(`${header}.${payload}.${signature}`)
+		).rejects.toThrow("Invalid token signature");
+	});
+
+	it("should reject an expired token", async () => {
+		const verifier = new TokenVerifier({ jwksUrl: JWKS_URL });
+		const token = signToken(
+			ecKeys.privateKey,
+			"es-key",
+			"ES256",
+			accessClaims(-1)
+		);
+
+		await expect(verifier.verify(token)).rejects.toThrow("Token expired");
+	});
+
+	it("should refetch the key set for an unknown kid at most once per cooldown", async () => {
+		const verifier = new TokenVerifier({ jwksUrl: JWKS_URL });
+		const token = signToken(
+			ecKeys.privateKey,
+			"new-key",
+			"ES256",
+			accessClaims()
+		);
+
+		await expect(verifier.verify(token)).rejects.toThrow("Unknown signing key");
+		await expect(verifier.verify(token)).rejects.toThrow("Unknown signing key");
+		expect(fetchMock).toHaveBeenCalledTimes(1);
+	});
+
+	it("should pick up a newly published key after the cooldown", async () => {
+		const verifier = new TokenVerifier({
+			jwksUrl: JWKS_URL,
+			refetchCooldownMs: 0,
+		});
+		await verifier.verify(
+			signToken(ecKeys.privateKey, "es-key", "ES256", accessClaims())
+		);
+
+		fetchMock.mockResolvedValue(
+			jwksResponse([publicJwk(ecKeys.publicKey, "new-key", "ES256")])
+		);
+		const token = signToken(
+			ecKeys.privateKey,
+			"new-key",
+			"ES256",
+			accessClaims()
+		);
+
+		expect((await verifier.verify(token)).type).toBe("access");
+		expect(fetchMock).toHaveBeenCalledTimes(2);
+	});
+
+	it("should keep the known keys when a refetch fails", async () => {
+		const verifier = new TokenVerifier({
+			jwksUrl: JWKS_URL,
+			refetchCooldownMs: 0,
+		});
+		const token = signToken(
+			ecKeys.privateKey,
+			"es-key",
+			"ES256",
+			accessClaims()
+		);
+		await verifier.verify(token);
+
+		fetchMock.mockRejectedValue(new Error("connection refused"));
+		await expect(
+			verifier.verify(
+				signToken(ecKeys.privateKey, "other-key", "ES256", accessClaims())
+			)
+		).rejects.toThrow("Unknown signing key");
+
+		expect((await verifier.verify(token)).type).toBe("access");
+	});
+
+	it("should verify tokens without a kid with the shared secret until the cutoff", async () => {
+		const token = jwt.sign({ sub: "user@example.com", type: "access" }, SECRET, {
+			expiresIn: 60,
+		});
+
+		const accepting = new TokenVerifier({
+			jwksUrl: JWKS_URL,
+			hmacSecret: SECRET,
+			hmacAcceptedUntil: new Date(Date.now() + 60_000),
+		});
+		const expired = new TokenVerifier({
+			jwksUrl: JWKS_URL,
+			hmacSecret: SECRET,
+			hmacAcceptedUntil: new Date(Date.now() - 1),
+		});
+		const withoutSecret = new TokenVerifier({ jwksUrl: JWKS_URL });
+
+		expect((await accepting.verify(token)).type).toBe("access");
+		await expect(expired.verify(token)).rejects.toThrow("no longer accepted");
+		await expect(withoutSecret.verify(token)).rejects.toThrow("not accepted");
+		expect(fetchMock).not.toHaveBeenCalled();
+	});
+});
+
+describe("tokenType", () => {
+	it("should read the type of standard and compact tokens", () => {
+		expect(tokenType({ sub: "user@example.com", type: "access" })).toBe("access");
+		expect(tokenType({ sub: "42", t: "a" })).toBe("access");
+		expect(tokenType({ sub: "42", t: "r" })).toBe("refresh");
+		expect(tokenType({ sub: "42", t: "x" })).toBeUndefined();
+		expect(tokenType({ sub: "user@example.com" })).toBeUndefined();
+	});
+});
+
+describe("tokenUserId", () => {
+	it("should read the user ID of standard and compact tokens", () => {
+		expect(tokenUserId({ sub: "user@example.com", uid: 42, type: "access" })).toBe("42");
+		expect(tokenUserId({ sub: "42", t: "a" })).toBe("42");
+		expect(tokenUserId({ sub: "user@example.com", type: "access" })).toBeUndefined();
+	});
+});
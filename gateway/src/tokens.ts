@@ -0,0 +1,231 @@
+import {
+	createPublicKey,
+	verify,
+	type JsonWebKey,
+	type KeyObject,
+} from "node:crypto";
+import jwt from "jsonwebtoken";
+import { createContextLogger } from "./logger.ts";
+
+/**
+ * Claims of a verified auth token.
+ *
+ * Standard tokens carry the email as `sub`, the user ID as `uid` and the
+ * token type as `type`. Compact tokens carry the user ID as `sub` and a
+ * one-letter token type as `t`.
+ */
+export type TokenClaims = jwt.JwtPayload & {
+	type?: string;
+	t?: string;
+	uid?: number;
+};
+
+const COMPACT_TOKEN_TYPES: Record<string, string> = {
+	a: "access",
+	r: "refresh",
+};
+
+/**
+ * Reads the token type of standard and compact tokens alike.
+ *
+ * @param claims - The claims of a verified token
+ * @returns The token type, e.g. "access", or undefined if the token has none
+ */
+export function tokenType(claims: TokenClaims): string | undefined {
+	if (claims.type !== undefined) {
+		return claims.type;
+	}
+	return claims.t !== undefined ? COMPACT_TOKEN_TYPES[claims.t] : undefined;
+}
+
+/**
+ * Reads the user ID of standard and compact tokens alike.
+ *
+ * @param claims - The claims of a verified token
+ * @returns The user ID, or undefined if the token has none
+ */
+export function tokenUserId(claims: TokenClaims): string | undefined {
+	if (claims.uid !== undefined) {
+		return String(claims.uid);
+	}
+	return claims.t !== undefined ? claims.sub : undefined;
+}
+
+/**
+ * Options of a {@link TokenVerifier}.
+ */
+export interface TokenVerifierOptions {
+	/** URL of the JWKS document the auth service publishes. */
+	jwksUrl: string;
+	/** Shared secret that verifies HS256 tokens without a `kid` header, if those are accepted. */
+	hmacSecret?: string;
+	/** When tokens without a `kid` header stop being accepted. */
+	hmacAcceptedUntil?: Date;
+	/** Minimum time between key set refetches caused by an unknown `kid`, in milliseconds. */
+	refetchCooldownMs?: number;
+}
+
+interface VerificationKey {
+	algorithm: string;
+	key: KeyObject;
+}
+
+const SUPPORTED_ALGORITHMS = new Set(["ES256", "EdDSA"]);
+const DEFAULT_MAX_AGE_MS = 300_000;
+const DEFAULT_REFETCH_COOLDOWN_MS = 30_000;
+
+/**
+ * Verifies tokens issued by the auth service.
+ *
+ * Tokens with a `kid` header are verified with the matching ES256 or EdDSA key
+ * from the auth service's JWKS document. The key set is cached for the
+ * `max-age` the auth service sends, and fetched again early when a token names
+ * an unknown key, at most once per cooldown. If a refetch fails, the keys
+ * already known keep verifying tokens.
+ *
+ * Tokens without a `kid` header are signed with the shared HMAC secret. They
+ * are only accepted if the secret is configured, and until the configured
+ * cutoff.
+ */
+export class TokenVerifier {
+	private keys = new Map<string, VerificationKey>();
+	private keysExpireAt = 0;
+	private lastFetchAt = Number.NEGATIVE_INFINITY;
+	private pendingFetch: Promise<void> | null = null;
+
+	constructor(private readonly options: TokenVerifierOptions) {}
+
+	/**
+	 * Checks the signature and expiry of a token.
+	 *
+	 * @param token - The JWT to verify
+	 * @returns The claims of the token
+	 * @throws {Error} If the token is malformed, expired, or its signature or key is not accepted
+	 */
+	async verify(token: string): Promise<TokenClaims> {
+		const parts = token.split(".");
+		if (parts.length !== 3) {
+			throw new Error("Malformed token");
+		}
+		const [encodedHeader, encodedPayload, encodedSignature] = parts;
+		const header = JSON.parse(
+			Buffer.from(encodedHeader, "base64url").toString("utf8")
+		);
+
+		if (header.kid === undefined) {
+			return this.verifyHmac(token);
+		}
+		if (typeof header.kid !== "string") {
+			throw new Error("Malformed key ID");
+		}
+
+		const key = await this.getKey(header.kid);
+		if (!key || key.algorithm !== header.alg) {
+			throw new Error(`Unknown signing key ${header.kid}`);
+		}
+
+		const data = Buffer.from(`${encodedHeader}.${encodedPayload}`);
+		const signature = Buffer.from(encodedSignature, "base64url");
+		const valid =
+			key.algorithm === "ES256"
+				? verify(
+						"sha256",
+						data,
+						{ key: key.key, dsaEncoding: "ieee-p1363" },
+						signature
+				  )
+				: verify(null, data, key.key, signature);
+		if (!valid) {
+			throw new Error("Invalid token signature");
+		}
+
+		const claims = JSON.parse(
+			Buffer.from(encodedPayload, "base64url").toString("utf8")
+		) as TokenClaims;
+		if (typeof claims.exp !== "number" || claims.exp * 1000 <= Date.now()) {
+			throw new Error("Token expired");
+		}
+		return claims;
+	}
+
+	private verifyHmac(token: string): TokenClaims {
+		const { hmacSecret, hmacAcceptedUntil } = this.options;
+		if (!hmacSecret) {
+			throw new Error("Tokens without a key ID are not accepted");
+		}
+		if (hmacAcceptedUntil && Date.now() >= hmacAcceptedUntil.getTime()) {
+			throw new Error("Tokens without a key ID are no longer accepted");
+		}
+		return jwt.verify(token, hmacSecret, {
+			algorithms: ["HS256"],
+		}) as TokenClaims;
+	}
+
+	private async getKey(keyId: string): Promise<VerificationKey | undefined> {
+		const now = Date.now();
+		const cooldown =
+			this.options.refetchCooldownMs ?? DEFAULT_REFETCH_COOLDOWN_MS;
+		const stale = now >= this.keysExpireAt;
+		const unknown = !this.keys.has(keyId) && now - this.lastFetchAt >= cooldown;
+
+		if (stale || unknown) {
+			try {
+				await this.fetchKeys();
+			} catch (error) {
+				createContextLogger({ operation: "fetchJwks" }).warn(
+					"JWKS refresh failed, keeping the known keys",
+					{
+						error: error instanceof Error ? error.message : "Unknown error",
+						knownKeys: this.keys.size,
+					}
+				);
+			}
+		}
+		return this.keys.get(keyId);
+	}
+
+	private fetchKeys(): Promise<void> {
+		this.pendingFetch ??= this.loadKeys().finally(() => {
+			this.pendingFetch = null;
+		});
+		return this.pendingFetch;
+	}
+
+	private async loadKeys(): Promise<void> {
+		this.lastFetchAt = Date.now();
+		const response = await fetch(this.options.jwksUrl);
+		if (!response.ok) {
+			throw new Error(`JWKS request failed with status ${response.status}`);
+		}
+
+		const jwks = (await response.json()) as {
+			keys?: Record<string, unknown>[];
+		};
+		const keys = new Map<string, VerificationKey>();
+		for (const jwk of jwks.keys ?? []) {
+			const algorithm = typeof jwk.alg === "string" ? jwk.alg : "";
+			if (typeof jwk.kid !== "string" || !SUPPORTED_ALGORITHMS.has(algorithm)) {
+				continue;
+			}
+			keys.set(jwk.kid, {
+				algorithm,
+				key: createPublicKey({ key: jwk as JsonWebKey, format: "jwk" }),
+			});
+		}
+
+		this.keys = keys;
+		this.keysExpireAt =
+			this.lastFetchAt + maxAgeMs(response.headers.get("cache-control"));
+	}
+}
+
+/**
+ * Reads the `max-age` of a Cache-Control header.
+ *
+ * @param cacheControl - The Cache-Control header value, if any
+ * @returns The max-age in milliseconds, or the default if absent
+ */
+function maxAgeMs(cacheControl: string | null): number {
+	const match = /max-age=(\d+)/.exec(cacheControl ?? "");
+	return match ? Number(match[1]) * 1000 : DEFAULT_MAX_AGE_MS;
+}